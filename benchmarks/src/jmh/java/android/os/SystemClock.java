@@ -0,0 +1,14 @@
+package android.os;
+
+/**
+ * Stand-in for the Android class.
+ */
+public final class SystemClock {
+
+    private SystemClock() {
+    }
+
+    public static long elapsedRealtime() {
+        return System.nanoTime() / 1000000;
+    }
+}
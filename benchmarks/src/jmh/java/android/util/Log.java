@@ -0,0 +1,33 @@
+package android.util;
+
+/**
+ * Stand-in for the Android class. Output is discarded so benchmarks measure the plugin, not the
+ * console.
+ */
+public final class Log {
+    public static final int VERBOSE = 2;
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+    public static final int ASSERT = 7;
+
+    private Log() {
+    }
+
+    public static int d(String tag, String message) {
+        return 0;
+    }
+
+    public static int e(String tag, String message, Throwable error) {
+        return 0;
+    }
+
+    public static int println(int priority, String tag, String message) {
+        return 0;
+    }
+
+    public static String getStackTraceString(Throwable error) {
+        return String.valueOf(error);
+    }
+}
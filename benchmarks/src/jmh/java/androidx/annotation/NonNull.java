@@ -0,0 +1,7 @@
+package androidx.annotation;
+
+/**
+ * Stand-in for the AndroidX annotation.
+ */
+public @interface NonNull {
+}
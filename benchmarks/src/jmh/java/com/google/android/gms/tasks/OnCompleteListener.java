@@ -0,0 +1,10 @@
+package com.google.android.gms.tasks;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Stand-in for the GMS interface.
+ */
+public interface OnCompleteListener<TResult> {
+    void onComplete(@NonNull Task<TResult> task);
+}
@@ -0,0 +1,19 @@
+package com.google.android.gms.tasks;
+
+/**
+ * Stand-in for the GMS class with the methods the benchmarked plugin classes use.
+ */
+public abstract class Task<TResult> {
+
+    public abstract boolean isComplete();
+
+    public abstract boolean isSuccessful();
+
+    public abstract boolean isCanceled();
+
+    public abstract TResult getResult();
+
+    public abstract Exception getException();
+
+    public abstract Task<TResult> addOnCompleteListener(OnCompleteListener<TResult> listener);
+}
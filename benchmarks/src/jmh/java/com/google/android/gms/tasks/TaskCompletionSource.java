@@ -0,0 +1,88 @@
+package com.google.android.gms.tasks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stand-in for the GMS class. Listeners run on the thread that completes the task, or right away
+ * if it is already complete, instead of being posted to the main thread.
+ */
+public class TaskCompletionSource<TResult> {
+
+    private final SourceTask task = new SourceTask();
+
+    public Task<TResult> getTask() {
+        return task;
+    }
+
+    public boolean trySetResult(TResult result) {
+        return task.complete(result, null);
+    }
+
+    public boolean trySetException(Exception exception) {
+        return task.complete(null, exception);
+    }
+
+    private final class SourceTask extends Task<TResult> {
+        private boolean complete = false;
+        private TResult result = null;
+        private Exception exception = null;
+        private List<OnCompleteListener<TResult>> listeners = null;
+
+        boolean complete(TResult result, Exception exception) {
+            List<OnCompleteListener<TResult>> waiting;
+            synchronized (this) {
+                if (complete) return false;
+                complete = true;
+                this.result = result;
+                this.exception = exception;
+                waiting = listeners;
+                listeners = null;
+            }
+            if (waiting != null) {
+                for (OnCompleteListener<TResult> listener : waiting) {
+                    listener.onComplete(this);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public synchronized boolean isComplete() {
+            return complete;
+        }
+
+        @Override
+        public synchronized boolean isSuccessful() {
+            return complete && exception == null;
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return false;
+        }
+
+        @Override
+        public synchronized TResult getResult() {
+            return result;
+        }
+
+        @Override
+        public synchronized Exception getException() {
+            return exception;
+        }
+
+        @Override
+        public Task<TResult> addOnCompleteListener(OnCompleteListener<TResult> listener) {
+            synchronized (this) {
+                if (!complete) {
+                    if (listeners == null) listeners = new ArrayList<>(1);
+                    listeners.add(listener);
+                    return this;
+                }
+            }
+            listener.onComplete(this);
+            return this;
+        }
+    }
+}
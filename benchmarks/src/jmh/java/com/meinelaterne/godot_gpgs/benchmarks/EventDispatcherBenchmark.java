@@ -0,0 +1,47 @@
+package com.meinelaterne.godot_gpgs.benchmarks;
+
+import com.meinelaterne.godot_gpgs.util.EventDispatcher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * One frame worth of callbacks going through the dispatcher: a burst of events for a few
+ * scripts, then drained the way the mode drains them. Scores are per event.
+ */
+@State(Scope.Benchmark)
+public class EventDispatcherBenchmark {
+    private static final int EVENTS_PER_FRAME = 64;
+    private static final int SCRIPTS = 4;
+
+    @Param({ "0", "1", "2" })
+    public int mode;
+
+    private final Object[] args = new Object[] { "CgkI1234567890EAIQAQ", true };
+
+    @Setup
+    public void setUp() {
+        EventDispatcher.setMode(mode);
+    }
+
+    @TearDown
+    public void tearDown() {
+        EventDispatcher.setMode(EventDispatcher.MODE_DIRECT);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS_PER_FRAME)
+    public void frame(Blackhole blackhole) {
+        for (int i = 0; i < EVENTS_PER_FRAME; i++) {
+            EventDispatcher.send(i % SCRIPTS, "_on_play_game_services_achievement_unlocked", args);
+        }
+        if (mode == EventDispatcher.MODE_BATCHED) EventDispatcher.onFrame();
+        else blackhole.consume(EventDispatcher.pollEvents());
+    }
+}
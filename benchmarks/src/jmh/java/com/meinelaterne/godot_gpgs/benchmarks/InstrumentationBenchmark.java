@@ -0,0 +1,50 @@
+package com.meinelaterne.godot_gpgs.benchmarks;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.meinelaterne.godot_gpgs.util.GpgsLog;
+import com.meinelaterne.godot_gpgs.util.Metrics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost the metrics and logging add to every operation. Disabled log calls should not allocate.
+ */
+@State(Scope.Benchmark)
+public class InstrumentationBenchmark {
+
+    private final Object argument = "player_icon.png";
+    private Task<Integer> completed;
+
+    @Setup
+    public void setUp() {
+        // Logcat off so only the plugin side is measured, ring buffer at the default level
+        GpgsLog.setLevels(GpgsLog.NONE, GpgsLog.INFO);
+        TaskCompletionSource<Integer> source = new TaskCompletionSource<>();
+        source.trySetResult(0);
+        completed = source.getTask();
+    }
+
+    @Benchmark
+    public void recordLatency() {
+        Metrics.record(Metrics.OP_SNAPSHOT_OPEN, Metrics.start(), Metrics.OUTCOME_SUCCESS);
+    }
+
+    @Benchmark
+    public Task<Integer> trackTask() {
+        return Metrics.track(Metrics.OP_SIGN_IN, completed);
+    }
+
+    @Benchmark
+    public void logDisabled() {
+        GpgsLog.d("Image already cached and available: ", argument);
+    }
+
+    @Benchmark
+    public void logBuffered() {
+        GpgsLog.i("Image already cached and available: ", argument);
+    }
+}
@@ -0,0 +1,51 @@
+package com.meinelaterne.godot_gpgs.benchmarks;
+
+import com.meinelaterne.godot_gpgs.util.CacheKeys;
+import com.meinelaterne.godot_gpgs.util.GpgsLog;
+import com.meinelaterne.godot_gpgs.util.InstanceIDs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Instance ID parsing done by init() and the file name handling of every GodotCache lookup.
+ */
+@State(Scope.Benchmark)
+public class KeyParsingBenchmark {
+
+    @Param({ "1234", "1234,1235,1236,1237" })
+    public String ids;
+
+    private final int[] instanceIDs = new int[4];
+    private final String cachePath = "user://gpgs_lib_cache/player_icon_g01234567890123456789.png";
+    private final String cacheName = "player_icon_g01234567890123456789.png";
+
+    @Setup
+    public void setUp() {
+        GpgsLog.setLevels(GpgsLog.INFO, GpgsLog.INFO);
+    }
+
+    @Benchmark
+    public int[] parseInstanceIDs() {
+        InstanceIDs.parse(ids, ",", instanceIDs);
+        return instanceIDs;
+    }
+
+    @Benchmark
+    public String stripPath() {
+        return CacheKeys.stripPath(cachePath);
+    }
+
+    @Benchmark
+    public String stripPathPlainName() {
+        return CacheKeys.stripPath(cacheName);
+    }
+
+    @Benchmark
+    public String fileNameForWebp() {
+        return CacheKeys.forFormat(cacheName, true);
+    }
+}
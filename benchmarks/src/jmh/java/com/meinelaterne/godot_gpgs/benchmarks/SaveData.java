@@ -0,0 +1,35 @@
+package com.meinelaterne.godot_gpgs.benchmarks;
+
+import java.util.Random;
+
+/**
+ * Builds save games that look like the JSON a Godot game passes to saveSnapshot(): repeated
+ * keys, numbers and some non-ASCII player text. The same seed always gives the same data.
+ */
+final class SaveData {
+
+    private static final String[] NAMES = new String[] {
+            "H\u00E9l\u00E8ne", "J\u00FCrgen", "\u0141ukasz", "\uFF33\uFF41\uFF4B\uFF55\uFF52\uFF41", "Zo\u00EB", "\u00D6mer", "Ren\u00E9e", "Bj\u00F6rk",
+    };
+
+    private SaveData() {
+    }
+
+    static String json(int length, long seed) {
+        Random random = new Random(seed);
+        StringBuilder json = new StringBuilder(length + 128);
+        json.append("{\"version\":3,\"slots\":[");
+        int slot = 0;
+        while (json.length() < length) {
+            if (slot > 0) json.append(',');
+            json.append("{\"id\":").append(slot++)
+                    .append(",\"name\":\"").append(NAMES[random.nextInt(NAMES.length)]).append('"')
+                    .append(",\"level\":").append(random.nextInt(100))
+                    .append(",\"gold\":").append(random.nextInt(1000000))
+                    .append(",\"position\":[").append(random.nextFloat()).append(',').append(random.nextFloat()).append(']')
+                    .append(",\"flags\":").append(random.nextLong())
+                    .append('}');
+        }
+        return json.append("]}").toString();
+    }
+}
@@ -0,0 +1,53 @@
+package com.meinelaterne.godot_gpgs.benchmarks;
+
+import com.meinelaterne.godot_gpgs.util.SnapshotCodec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.zip.Deflater;
+
+/**
+ * The save and load paths of SavedGames for String snapshots: String to UTF-8 to container and
+ * back. A codec of -1 means the container is turned off, as it is by default.
+ */
+@State(Scope.Benchmark)
+public class SnapshotPayloadBenchmark {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int NO_CONTAINER = -1;
+
+    @Param({ "1024", "65536" })
+    public int size;
+
+    @Param({ "-1", "0", "1", "2" })
+    public int codec;
+
+    private String save;
+    private byte[] stored;
+
+    @Setup
+    public void setUp() {
+        save = SaveData.json(size, 42);
+        stored = encode(save);
+    }
+
+    @Benchmark
+    public byte[] save() {
+        return encode(save);
+    }
+
+    @Benchmark
+    public String load() throws IOException {
+        return new String(SnapshotCodec.decode(stored), UTF_8);
+    }
+
+    private byte[] encode(String data) {
+        byte[] bytes = data.getBytes(UTF_8);
+        return codec == NO_CONTAINER ? bytes : SnapshotCodec.encode(bytes, codec, Deflater.DEFAULT_COMPRESSION);
+    }
+}
@@ -0,0 +1,97 @@
+package com.meinelaterne.godot_gpgs.benchmarks;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.meinelaterne.godot_gpgs.util.Network;
+import com.meinelaterne.godot_gpgs.util.WorkScheduler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Scheduling overhead of the transfer queue, with the work itself reduced to a task that
+ * completes when the benchmark says so. Scores are per job.
+ */
+@State(Scope.Benchmark)
+public class WorkSchedulerBenchmark {
+    private static final int JOBS = 256;
+
+    private final Network network = new Network();
+    private final List<TaskCompletionSource<Integer>> started = new ArrayList<>(JOBS);
+    private final Callable<Task<Integer>> completedWork = new Callable<Task<Integer>>() {
+        @Override
+        public Task<Integer> call() {
+            TaskCompletionSource<Integer> source = new TaskCompletionSource<>();
+            source.trySetResult(0);
+            return source.getTask();
+        }
+    };
+    private final Callable<Task<Integer>> pendingWork = new Callable<Task<Integer>>() {
+        @Override
+        public Task<Integer> call() {
+            TaskCompletionSource<Integer> source = new TaskCompletionSource<>();
+            started.add(source);
+            return source.getTask();
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        network.setState(Network.State.WIFI);
+        WorkScheduler.getInstance().attach(network);
+    }
+
+    @TearDown
+    public void tearDown() {
+        WorkScheduler.getInstance().attach(null);
+    }
+
+    /**
+     * Every job finishes as soon as it starts, so nothing waits in the queue.
+     */
+    @Benchmark
+    @OperationsPerInvocation(JOBS)
+    public void scheduleImmediate(Blackhole blackhole) {
+        for (int i = 0; i < JOBS; i++) {
+            blackhole.consume(WorkScheduler.getInstance().schedule(i % 3, WorkScheduler.NETWORK_ANY, completedWork));
+        }
+    }
+
+    /**
+     * Jobs pile up behind the concurrency limits and are started one by one as others finish.
+     */
+    @Benchmark
+    @OperationsPerInvocation(JOBS)
+    public void scheduleQueued(Blackhole blackhole) {
+        started.clear();
+        for (int i = 0; i < JOBS; i++) {
+            blackhole.consume(WorkScheduler.getInstance().schedule(i % 3, WorkScheduler.NETWORK_ANY, pendingWork));
+        }
+        // Completing a job starts the next one, which adds to the list while it is walked
+        for (int i = 0; i < started.size(); i++) {
+            started.get(i).trySetResult(i);
+        }
+    }
+
+    /**
+     * Background jobs held while offline and released by a single network change.
+     */
+    @Benchmark
+    @OperationsPerInvocation(JOBS)
+    public void releaseOnReconnect(Blackhole blackhole) {
+        network.setState(Network.State.OFFLINE);
+        for (int i = 0; i < JOBS; i++) {
+            blackhole.consume(WorkScheduler.getInstance().schedule(WorkScheduler.PRIORITY_BACKGROUND, WorkScheduler.NETWORK_UNMETERED, completedWork));
+        }
+        network.setState(Network.State.WIFI);
+    }
+}
@@ -0,0 +1,49 @@
+package com.meinelaterne.godot_gpgs.util;
+
+/**
+ * Stand-in for the plugin class with the parts {@link WorkScheduler} uses. The state is set by
+ * the benchmark instead of ConnectivityManager.
+ */
+public class Network {
+
+    public static final class State {
+        public static final State OFFLINE = new State(false, false, false);
+        public static final State WIFI = new State(true, false, false);
+        public static final State MOBILE = new State(true, true, false);
+
+        public final boolean online;
+        public final boolean metered;
+        public final boolean roaming;
+
+        State(boolean online, boolean metered, boolean roaming) {
+            this.online = online;
+            this.metered = metered;
+            this.roaming = roaming;
+        }
+    }
+
+    public interface Listener {
+        void onNetworkChanged(State previous, State current);
+    }
+
+    private volatile State state = State.WIFI;
+    private Listener listener = null;
+
+    public void addListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void removeListener(Listener listener) {
+        if (this.listener == listener) this.listener = null;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public void setState(State current) {
+        State previous = state;
+        state = current;
+        if (listener != null) listener.onNetworkChanged(previous, current);
+    }
+}
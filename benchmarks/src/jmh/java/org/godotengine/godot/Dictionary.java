@@ -0,0 +1,9 @@
+package org.godotengine.godot;
+
+import java.util.HashMap;
+
+/**
+ * Stand-in for the Godot class.
+ */
+public class Dictionary extends HashMap<String, Object> {
+}
@@ -0,0 +1,12 @@
+package org.godotengine.godot;
+
+/**
+ * Stand-in for the Godot class. Only counts the calls so they cannot be optimized away.
+ */
+public class GodotLib {
+    public static volatile long calls = 0;
+
+    public static void calldeferred(long id, String method, Object[] params) {
+        calls++;
+    }
+}
@@ -2,43 +2,70 @@ package com.meinelaterne.godot_gpgs;
 
 import android.app.Activity;
 import android.content.Intent;
-import android.util.Log;
 import android.view.WindowManager;
 
 import androidx.annotation.NonNull;
 
 import com.google.android.gms.auth.api.signin.GoogleSignInAccount;
+import com.meinelaterne.godot_gpgs.util.AchievementOutbox;
 import com.meinelaterne.godot_gpgs.util.Achievements;
+import com.meinelaterne.godot_gpgs.util.AvatarFetcher;
 import com.meinelaterne.godot_gpgs.util.Client;
+import com.meinelaterne.godot_gpgs.util.EventDispatcher;
+import com.meinelaterne.godot_gpgs.util.GamesBackend;
+import com.meinelaterne.godot_gpgs.util.GamesSession;
 import com.meinelaterne.godot_gpgs.util.GodotCache;
+import com.meinelaterne.godot_gpgs.util.GpgsLog;
+import com.meinelaterne.godot_gpgs.util.GuardedGamesBackend;
+import com.meinelaterne.godot_gpgs.util.InstanceIDs;
+import com.meinelaterne.godot_gpgs.util.Journal;
 import com.meinelaterne.godot_gpgs.util.Leaderboard;
+import com.meinelaterne.godot_gpgs.util.LoadGenerator;
+import com.meinelaterne.godot_gpgs.util.Metrics;
 import com.meinelaterne.godot_gpgs.util.Network;
+import com.meinelaterne.godot_gpgs.util.PlayGamesBackend;
+import com.meinelaterne.godot_gpgs.util.PlayerProfile;
 import com.meinelaterne.godot_gpgs.util.SavedGames;
+import com.meinelaterne.godot_gpgs.util.ScoreSubmitter;
+import com.meinelaterne.godot_gpgs.util.TaskGuard;
+import com.meinelaterne.godot_gpgs.util.WorkScheduler;
 
+import org.godotengine.godot.Dictionary;
 import org.godotengine.godot.Godot;
 import org.godotengine.godot.plugin.GodotPlugin;
 
 import java.util.Arrays;
 import java.util.List;
 
+import javax.microedition.khronos.opengles.GL10;
+
 public class GooglePlayGameServices extends GodotPlugin {
 
-    private static final String TAG = "gpgs";
     public static final String STRING_DATA_DELIMITER = ",";
 
     private static final int REQUEST_RESOLVE_ERROR = 1001;
 
+    // How long a pause may wait for queued journal records to reach the disk
+    private static final long PAUSE_WRITE_TIMEOUT_MS = 500;
+
     public static final String GODOT_SUB_FOLDER = "files";
     public static final String CACHE_FOLDER = "gpgs_lib_cache";
 
     private Activity activity;
 
     private GoogleSignInAccount signedInAccount;
+    private GamesSession session;
+    private GamesBackend backend;
+    private final TaskGuard taskGuard = new TaskGuard();
     private Client client;
     private Network network;
+    private AvatarFetcher avatarFetcher;
     private Achievements achievements;
+    private AchievementOutbox achievementOutbox;
     private Leaderboard leaderboard;
+    private ScoreSubmitter scoreSubmitter;
     private SavedGames savedGames;
+    private LoadGenerator loadGenerator;
 
     private boolean savedGamesEnabled = false;
 
@@ -72,15 +99,167 @@ public class GooglePlayGameServices extends GodotPlugin {
      */
     public void init(final String instanceIDsStr, boolean useSavedGames) {
         setInstanceIDsFromString(instanceIDsStr, STRING_DATA_DELIMITER);
+        if (client != null) client.close();
         client = new Client(activity, instanceIDs[0], this, useSavedGames);
-        network = new Network(activity);
+        if (network != null) network.close();
+        network = new Network(activity, instanceIDs[0]);
+        WorkScheduler.getInstance().attach(network);
+        avatarFetcher = new AvatarFetcher(activity, instanceIDs[0]);
+        // Kept across calls, so there is only ever one handle on their journals and pending work
+        if (achievementOutbox == null) achievementOutbox = new AchievementOutbox(activity);
+        if (scoreSubmitter == null) scoreSubmitter = new ScoreSubmitter(activity, instanceIDs[2]);
+        else scoreSubmitter.setInstanceID(instanceIDs[2]);
+        achievements = new Achievements(activity, instanceIDs[1]);
+        leaderboard = new Leaderboard(activity, instanceIDs[2]);
+        if (savedGames == null) savedGames = new SavedGames(activity, instanceIDs[3]);
+        else savedGames.setInstanceID(instanceIDs[3]);
         savedGamesEnabled = useSavedGames;
+
+        // Work queued while offline goes out as soon as there is a connection again
+        network.addListener(new Network.Listener() {
+            @Override
+            public void onNetworkChanged(Network.State previous, Network.State current) {
+                if (previous.online || !current.online) return;
+                achievementOutbox.flush();
+                scoreSubmitter.flush();
+            }
+        });
     }
 
     public void clearCache(){
         GodotCache.clearCache(activity);
     }
 
+    /**
+     * Budgets of 0 or less are ignored and logged.
+     *
+     * @param memoryBudgetBytes size of the decoded images kept in memory
+     * @param diskBudgetBytes   size of the image files kept in the cache folder
+     * @param ttlSeconds        age after which a cached image is downloaded again (0 = never)
+     */
+    public void configureCache(int memoryBudgetBytes, int diskBudgetBytes, int ttlSeconds){
+        GodotCache.configure(memoryBudgetBytes, diskBudgetBytes, ttlSeconds);
+    }
+
+    /**
+     * @param format  0 = PNG, 1 = lossless WebP (PNG before Android 10), 2 = lossy WebP. Cached
+     *                images are named with the matching extension.
+     * @param quality 0-100, only used for lossy WebP
+     */
+    public void setCacheImageFormat(int format, int quality){
+        GodotCache.setImageFormat(format, quality);
+    }
+
+    /**
+     * @return hit, miss and eviction counters and current sizes of the image cache
+     */
+    public Dictionary getCacheStats(){
+        return GodotCache.getStats();
+    }
+
+    /**
+     * @return latency histograms and success, failure and timeout counters per Play Games
+     *         operation, snapshot and image byte counters, and period_ms since the last reset
+     */
+    public Dictionary getMetrics(){
+        return Metrics.getMetrics(false);
+    }
+
+    /**
+     * Same as getMetrics(), and starts a new reporting period, e.g. for per session reports.
+     */
+    public Dictionary takeMetrics(){
+        return Metrics.getMetrics(true);
+    }
+
+    /**
+     * @param operation   sign_in, player, achievement, achievement_increment, achievement_load,
+     *                    score, snapshot_list, snapshot_read, snapshot_write or image
+     * @param deadlineMs  time the operation may take including retries, 0 for no deadline. With
+     *                    conflict strategy 4 the snapshot deadlines include the time GDScript
+     *                    takes to resolve a conflict.
+     * @param maxAttempts attempts including the first one; only network, internal, interrupted
+     *                    and timeout errors are retried. achievement_increment and snapshot_write
+     *                    are never retried, as a repeat could count twice or overwrite a newer save.
+     * @return false if the operation is unknown
+     */
+    public boolean setTaskPolicy(String operation, int deadlineMs, int maxAttempts){
+        int op = TaskGuard.operationForName(operation);
+        if (op < 0) return false;
+        taskGuard.setPolicy(op, deadlineMs, maxAttempts);
+        return true;
+    }
+
+    /**
+     * @param failureThreshold retryable failures in a row after which an operation stops calling
+     *                         Play Games, 0 to turn the circuit breaker off. Defaults to 5.
+     * @param openMs           how long it stops before trying again. Defaults to 30 seconds.
+     */
+    public void setCircuitBreaker(int failureThreshold, int openMs){
+        taskGuard.setCircuitBreaker(failureThreshold, openMs);
+    }
+
+    /**
+     * Stops waiting for the Play Games calls of an operation, e.g. when the player leaves a
+     * loading screen. They fail right away with their usual failure callback.
+     *
+     * @param operation one of the names taken by setTaskPolicy(), or "" for every operation
+     * @return false if the operation is unknown
+     */
+    public boolean cancelTasks(String operation){
+        int op = operation.isEmpty() ? -1 : TaskGuard.operationForName(operation);
+        if (op < 0 && !operation.isEmpty()) return false;
+        taskGuard.cancel(op);
+        if (savedGames != null && (op < 0 || op == TaskGuard.OP_SNAPSHOT_READ || op == TaskGuard.OP_SNAPSHOT_WRITE))
+            savedGames.cancelConflicts();
+        return true;
+    }
+
+    /**
+     * @return per operation: deadline_ms, max_attempts, in_flight, retries, timeouts,
+     *         cancellations, rejections and circuit_open
+     */
+    public Dictionary getTaskStats(){
+        return taskGuard.getStats();
+    }
+
+    /**
+     * @param logcatLevel lowest level written to logcat
+     * @param bufferLevel lowest level kept for dumpLog()
+     *                    (2 = verbose, 3 = debug, 4 = info, 5 = warn, 6 = error, 8 = off).
+     *                    Both default to info.
+     */
+    public void setLogLevel(int logcatLevel, int bufferLevel){
+        GpgsLog.setLevels(logcatLevel, bufferLevel);
+    }
+
+    /**
+     * @return the last 256 buffered log entries, oldest first, each with time_ms, level and
+     *         message, e.g. to attach to a bug report
+     */
+    public Object[] dumpLog(){
+        return GpgsLog.dump();
+    }
+
+    public void clearLog(){
+        GpgsLog.clear();
+    }
+
+    /**
+     * Drives unlocks, score submits and saves through the plugin's queues against an in-memory
+     * backend and reports throughput, queue depths and heap growth to
+     * _on_play_game_services_load_test_completed(report). See LoadGenerator for the config
+     * entries. Does not need a signed in player and leaves the player's queues alone.
+     *
+     * @return false if a load test is already running
+     */
+    public boolean runLoadTest(int instanceID, Dictionary config){
+        if (loadGenerator != null && !loadGenerator.isFinished()) return false;
+        loadGenerator = new LoadGenerator(activity, instanceID, config);
+        loadGenerator.start();
+        return true;
+    }
+
     public void keepScreenOn(final boolean keepOn){
         runOnUiThread(new Runnable() {
             @Override
@@ -97,21 +276,125 @@ public class GooglePlayGameServices extends GodotPlugin {
 
     public void setClient(GoogleSignInAccount signedInAccount) {
         this.signedInAccount = signedInAccount;
-        this.achievements = new Achievements(activity, signedInAccount, instanceIDs[1]);
-        this.leaderboard = new Leaderboard(activity, signedInAccount, instanceIDs[2]);
-        this.savedGames = new SavedGames(activity, signedInAccount, instanceIDs[3]);
-        Log.d(TAG, "setClient: " + signedInAccount.getDisplayName());
+        this.session = new GamesSession(activity, signedInAccount);
+        achievements.setSession(session);
+        leaderboard.setSession(session);
+        savedGames.setSession(session);
+        setBackend(new GuardedGamesBackend(new PlayGamesBackend(activity, session, savedGames.getConflictResolver()), taskGuard));
+        GpgsLog.d("setClient: ", signedInAccount.getDisplayName());
     }
 
     public void removeClient(){
+        if (session != null)
+            GpgsLog.d("removeClient: client constructions avoided this session: ", session.getReusedCount());
         this.signedInAccount = null;
-        this.achievements = null;
-        this.leaderboard = null;
-        this.savedGames = null;
+        this.session = null;
+        achievements.setSession(null);
+        leaderboard.setSession(null);
+        savedGames.setSession(null);
+        setBackend(null);
+    }
+
+    /**
+     * Everything that talks to Play Games once a player is signed in goes through the backend.
+     */
+    private void setBackend(GamesBackend backend) {
+        this.backend = backend;
+        savedGames.setBackend(backend);
+        achievementOutbox.setBackend(backend);
+        scoreSubmitter.setBackend(backend);
+        GodotCache.setBackend(backend);
+    }
+
+    /**
+     * @return the backend of the signed in account, or null while signed out
+     */
+    public GamesBackend getBackend() {
+        return backend;
+    }
+
+    public TaskGuard getTaskGuard() {
+        return taskGuard;
+    }
+
+    /**
+     * @return the clients of the signed in account, or null while signed out
+     */
+    public GamesSession getSession() {
+        return session;
+    }
+
+    public Network getNetwork() {
+        return network;
+    }
+
+    public SavedGames getSavedGames() {
+        return savedGames;
+    }
+
+    /**
+     * @return how many Play Games client constructions the current session avoided by reusing
+     *         its clients
+     */
+    public int getSessionClientReuseCount() {
+        return session != null ? session.getReusedCount() : 0;
+    }
+
+    @Override
+    public void onMainPause() {
+        if (achievementOutbox != null) achievementOutbox.flush();
+        if (scoreSubmitter != null) scoreSubmitter.flush();
+        GodotCache.persistIndex();
+        if (savedGames != null) savedGames.flushWrites();
+        // The process may be killed any time after this
+        if (!Journal.awaitWrites(PAUSE_WRITE_TIMEOUT_MS)) GpgsLog.w("Journals not written before pause");
+    }
+
+    @Override
+    public void onMainDestroy() {
+        if (network != null) network.close();
+    }
+
+    /**
+     * In batched mode, events are delivered here once per frame.
+     */
+    @Override
+    public void onGLDrawFrame(GL10 gl) {
+        EventDispatcher.onFrame();
+    }
+
+    /**
+     * @param mode 0 = every callback is called on its own (default),
+     *             1 = callbacks are queued until pollEvents() is called,
+     *             2 = once per frame each script gets all its callbacks in
+     *                 _on_play_game_services_events(events).
+     *             Queued callbacks are Dictionaries with instance_id, callback (its name) and
+     *             args (an Array with its usual arguments). Those queued before switching back
+     *             to 0 are called first.
+     */
+    public void setEventMode(int mode){
+        EventDispatcher.setMode(mode);
+    }
+
+    /**
+     * @return all queued callbacks as Dictionaries with instance_id, callback and args, oldest
+     *         first. Only used with event mode 1.
+     */
+    public Object[] pollEvents(){
+        return EventDispatcher.pollEvents();
+    }
+
+    /**
+     * @return callbacks dropped since the app started because more than 4096 were queued in
+     *         event mode 1 or 2. The first drop is also logged as a warning.
+     */
+    public int getDroppedEventCount(){
+        return EventDispatcher.getDroppedCount();
     }
 
     @Override
     public void onMainActivityResult(int requestCode, int resultCode, Intent data) {
+        if (client == null) return;
         client.onMainActivityResult(requestCode, resultCode, data);
         savedGames.onMainActivityResult(requestCode, resultCode, data);
     }
@@ -155,6 +438,20 @@ public class GooglePlayGameServices extends GodotPlugin {
         client.signOut();
     }
 
+    /**
+     * Chooses what is loaded together with the player right after signing in. All phases are on
+     * by default.
+     *
+     * @param phases sum of 1 = achievement states, 2 = saved game list, 4 = player icon
+     * @godot_callback _on_play_game_services_warm_up_completed(timings) with fast_path,
+     *                 sign_in_ms, player_ms, achievements_ms, snapshots_ms, icon_ms and total_ms
+     *                 (-1 = skipped or failed)
+     */
+    public void setSignInWarmUp(int phases) {
+        if (client == null) return;
+        client.setWarmUpPhases(phases);
+    }
+
     //endregion
 
     //region Network Methods --------------------------------------------------------------------------------
@@ -189,50 +486,102 @@ public class GooglePlayGameServices extends GodotPlugin {
         return network.isMobileConnected();
     }
 
+    /**
+     * All getters in this region read a snapshot that is updated when the system reports a
+     * change, so they are cheap enough to call every frame.
+     *
+     * @return online, wifi, mobile, metered, roaming, downstream_kbps and upstream_kbps
+     * @godot_callback _on_play_game_services_network_changed(state) when any value other than
+     *                 the bandwidth estimates changes
+     */
+    public Dictionary getNetworkState() {
+        if (network == null) return Network.State.OFFLINE.toDictionary();
+        return network.getState().toDictionary();
+    }
+
+    /**
+     * Image downloads and saved game writes run through a shared scheduler with three classes:
+     * interactive (saves), normal (icons) and background (banners, which also wait for an
+     * unmetered connection). Each class has its own limit, so saves never wait for images.
+     *
+     * @param priority 0 = interactive, 1 = normal, 2 = background
+     * @param limit    how many transfers of this class may run at the same time
+     */
+    public void setTransferConcurrency(int priority, int limit) {
+        WorkScheduler.getInstance().setConcurrency(priority, limit);
+    }
+
+    /**
+     * @return queued, running and limit for each scheduler class
+     */
+    public Dictionary getTransferStats() {
+        return WorkScheduler.getInstance().getStats();
+    }
+
     //endregion
 
     //region Currently Signed In Player Information Methods -------------------------------------------------
 
     public String getCurrentPlayerID(){
-        if (client != null && client.currentPlayer != null)
-            return client.currentPlayer.player.getPlayerId();
-        return "";
+        PlayerProfile profile = getCurrentPlayer();
+        return profile != null ? profile.playerID : "";
     }
 
     public String getCurrentPlayerDisplayName(){
-        if (client != null && client.currentPlayer != null)
-            return client.currentPlayer.player.getDisplayName();
-        return "";
+        PlayerProfile profile = getCurrentPlayer();
+        return profile != null ? profile.displayName : "";
     }
 
     public String getCurrentPlayerTitle(){
-        if (client != null && client.currentPlayer != null)
-            return client.currentPlayer.player.getTitle();
-        return "";
+        PlayerProfile profile = getCurrentPlayer();
+        return profile != null ? profile.title : "";
     }
 
     public int getCurrentPlayerLevel(){
-        if (client != null && client.currentPlayer != null)
-            return client.currentPlayer.player.getLevelInfo().getCurrentLevel().getLevelNumber();
-        return 0;
+        PlayerProfile profile = getCurrentPlayer();
+        return profile != null ? profile.level : 0;
     }
 
     public String getCurrentPlayerXP(){
-        if (client != null && client.currentPlayer != null)
-            return "" + client.currentPlayer.player.getLevelInfo().getCurrentXpTotal();
-        return "";
+        PlayerProfile profile = getCurrentPlayer();
+        return profile != null ? Long.toString(profile.xp) : "";
     }
 
     public String getCurrentPlayerMaxXP(){
-        if (client != null && client.currentPlayer != null)
-            return "" + client.currentPlayer.player.getLevelInfo().getCurrentLevel().getMaxXp();
-        return "";
+        PlayerProfile profile = getCurrentPlayer();
+        return profile != null ? Long.toString(profile.maxXP) : "";
     }
 
     public String getCurrentPlayerMinXP(){
-        if (client != null && client.currentPlayer != null)
-            return "" + client.currentPlayer.player.getLevelInfo().getCurrentLevel().getMinXp();
-        return "";
+        PlayerProfile profile = getCurrentPlayer();
+        return profile != null ? Long.toString(profile.minXP) : "";
+    }
+
+    /**
+     * Replaces the single field getters above with one call.
+     *
+     * @return version, player_id, display_name, title, level, xp, min_xp and max_xp of the signed
+     *         in player. XP values are integers. version changes whenever any other value does,
+     *         so a HUD can skip refreshing while it stays the same.
+     *         Right after start this is the profile of the last session with stale = true, and
+     *         icon_path points to its cached icon if there is one. Once Play Games answers,
+     *         stale becomes false. A failed sign-in keeps the profile with stale = true; only
+     *         signOut() clears it.
+     * @godot_callback _on_play_game_services_player_profile_changed(profile), only if the
+     *                 refreshed profile differs from the stored one
+     */
+    public Dictionary getCurrentPlayerProfile(){
+        if (client == null) return new Dictionary();
+        return client.getProfileDictionary();
+    }
+
+    public int getCurrentPlayerProfileVersion(){
+        if (client == null) return 0;
+        return client.getProfileVersion();
+    }
+
+    private PlayerProfile getCurrentPlayer(){
+        return client != null ? client.getProfile() : null;
     }
 
     /**
@@ -254,6 +603,28 @@ public class GooglePlayGameServices extends GodotPlugin {
         return false;
     }
 
+    /**
+     * Loads the avatars of many players at once, e.g. for a leaderboard or friends screen.
+     *
+     * @param playerIDs    the players whose avatars should be loaded
+     * @param imageURIs    the icon image URI of each player, in the same order
+     * @param firstVisible index of the first row currently on screen
+     * @param visibleCount number of rows on screen; these are loaded before the others
+     * @return the request ID used in the callback, or 0 if the input was invalid
+     * @godot_callback _on_play_game_services_player_icons_loaded(requestID, playerIDs, folder, fileNames, done, total)
+     */
+    public int requestPlayerIcons(String[] playerIDs, String[] imageURIs, int firstVisible, int visibleCount){
+        if (avatarFetcher == null) return 0;
+        return avatarFetcher.fetch(playerIDs, imageURIs, firstVisible, visibleCount);
+    }
+
+    /**
+     * @param maxConcurrentDownloads how many images requestPlayerIcons() downloads at the same time
+     */
+    public void setPlayerIconConcurrency(int maxConcurrentDownloads){
+        if (avatarFetcher != null) avatarFetcher.setConcurrency(maxConcurrentDownloads);
+    }
+
     //endregion
 
     //region Achievements -----------------------------------------------------------------------------------
@@ -262,12 +633,21 @@ public class GooglePlayGameServices extends GodotPlugin {
         return achievements != null && achievements.showAchievementsUI();
     }
 
+    /**
+     * Queues the unlock in the achievement outbox. It is sent as soon as a player is signed in
+     * and survives the app being closed before that.
+     */
     public void unlockAchievement(String achievementID){
-        if (achievements != null) achievements.unlockAchievement(achievementID);
+        if (achievementOutbox != null) achievementOutbox.unlock(achievementID);
     }
 
+    /**
+     * Queues the increment in the achievement outbox, merged with any other pending increments
+     * for the same achievement. An increment whose call times out or fails on the network is not
+     * sent again, since Play Games may have counted it already.
+     */
     public void incrementAchievement(String achievementID, int incrementBy){
-        if (achievements != null) achievements.incrementAchievement(achievementID, incrementBy);
+        if (achievementOutbox != null) achievementOutbox.increment(achievementID, incrementBy);
     }
 
     //endregion
@@ -278,8 +658,38 @@ public class GooglePlayGameServices extends GodotPlugin {
         return leaderboard != null && leaderboard.showLeaderboardUI(leaderboardID);
     }
 
+    /**
+     * Queues the score. Only the best pending score per leaderboard is sent, on the submit
+     * interval or when the app is paused.
+     *
+     * @godot_callback _on_play_game_services_scores_submitted(submitted, dropped)
+     */
     public void submitScore(String leaderboardID, int score){
-        if (leaderboard != null) leaderboard.submitScore(leaderboardID, score);
+        if (scoreSubmitter != null) scoreSubmitter.submit(leaderboardID, score);
+    }
+
+    /**
+     * Sends all pending scores now, e.g. at the end of a round.
+     *
+     * @godot_callback _on_play_game_services_scores_submitted(submitted, dropped)
+     */
+    public void flushScores(){
+        if (scoreSubmitter != null) scoreSubmitter.flush();
+    }
+
+    /**
+     * @param intervalSeconds how often pending scores are sent. 0 sends them only on
+     *                        flushScores() or when the app is paused.
+     */
+    public void setScoreSubmitInterval(int intervalSeconds){
+        if (scoreSubmitter != null) scoreSubmitter.setSubmitInterval(intervalSeconds);
+    }
+
+    /**
+     * Tells the plugin which scores count as better for a leaderboard (higher by default).
+     */
+    public void setLeaderboardLowerIsBetter(String leaderboardID, boolean lowerIsBetter){
+        if (scoreSubmitter != null) scoreSubmitter.setLowerIsBetter(leaderboardID, lowerIsBetter);
     }
 
     //endregion
@@ -287,33 +697,187 @@ public class GooglePlayGameServices extends GodotPlugin {
     //region Saved Games (Snapshots) ------------------------------------------------------------------------
 
     public void showSavedGamesUI(String title, boolean allowAddButton, boolean allowDelete, int maxSavedGamesToShow){
-        Log.d(TAG, "showSavedGamesUI()");
+        GpgsLog.d("showSavedGamesUI()");
         if (savedGamesEnabled) {
             if (savedGames != null)
                 savedGames.showSavedGamesUI(title, allowAddButton, allowDelete, maxSavedGamesToShow);
         }else {
-            Log.d(TAG, "Saved Games not enabled. Need to pass in true for the second input of the singleton's init() function to use this functionality.");
+            GpgsLog.w("Saved Games not enabled. Need to pass in true for the second input of the singleton's init() function to use this functionality.");
         }
     }
 
+    /**
+     * Controls how new saves are stored. Saves are always loaded correctly, whatever format they
+     * were written in.
+     *
+     * @param useContainer write saves with a version header and CRC32 checksum
+     * @param codec        0 = none, 1 = deflate, 2 = fast LZ
+     * @param level        deflate level (0-9, -1 for the default); ignored by the other codecs
+     * @return false if the codec or level is unknown, in which case nothing changes
+     */
+    public boolean setSnapshotCompression(boolean useContainer, int codec, int level){
+        return savedGames != null && savedGames.setCompression(useContainer, codec, level);
+    }
+
+    /**
+     * @param quietPeriodMs how long a snapshot must go without new writes before it is committed.
+     *                      Every write folded into a commit still gets its own
+     *                      _on_play_game_services_saved_game_saved callback.
+     */
+    public void setSnapshotWriteQuietPeriod(int quietPeriodMs){
+        if (savedGames != null) savedGames.setWriteQuietPeriod(quietPeriodMs);
+    }
+
+    /**
+     * Cover images are scaled down to fit both limits before they are attached to a save.
+     *
+     * @param maxDimension longest edge of a cover image in pixels (default 640)
+     * @param maxBytes     size of the decoded cover image in bytes (default 0, the limit Play
+     *                     Games reports). Never more than the Play Games limit.
+     */
+    public void setSnapshotCoverImageLimits(int maxDimension, int maxBytes){
+        if (savedGames != null) savedGames.setCoverImageLimits(maxDimension, maxBytes);
+    }
+
+    /**
+     * Commits all pending snapshot writes now. Also happens automatically when the app is paused.
+     */
+    public void flushSnapshotWrites(){
+        if (savedGames != null) savedGames.flushWrites();
+    }
+
+    /**
+     * @param policy one of Google's SnapshotsClient.RESOLUTION_POLICY_ values
+     *               (-1 = manual, 1 = longest playtime, 2 = last known good,
+     *               3 = most recently modified, 4 = highest progress)
+     */
+    public void setSnapshotConflictPolicy(int policy){
+        if (savedGames != null) savedGames.setConflictResolutionPolicy(policy);
+    }
+
+    /**
+     * Chooses how conflicts are merged when the conflict policy is manual (-1).
+     *
+     * @param strategy 0 = highest progress value, 1 = longest playtime, 2 = most recent,
+     *                 3 = key-by-key union of JSON saves, 4 = ask GDScript
+     * @godot_callback _on_play_game_services_saved_game_conflict(conflictID, snapshotName, serverData, serverMetadata, localData, localMetadata)
+     */
+    public void setSnapshotConflictStrategy(int strategy){
+        if (savedGames != null) savedGames.setConflictStrategy(strategy);
+    }
+
+    /**
+     * @param timeoutMs how long strategy 4 waits for resolveSnapshotConflict() before it keeps
+     *                  the version with the highest progress value, 0 to wait forever. Defaults
+     *                  to 10 seconds.
+     */
+    public void setSnapshotConflictTimeout(int timeoutMs){
+        if (savedGames != null) savedGames.setConflictTimeout(timeoutMs);
+    }
+
+    /**
+     * Answers _on_play_game_services_saved_game_conflict with the merged save.
+     *
+     * @return false if no conflict with this ID is waiting
+     */
+    public boolean resolveSnapshotConflict(String conflictID, byte[] mergedData){
+        return savedGames != null && savedGames.resolveConflict(conflictID, mergedData);
+    }
+
     public void requestWriteSnapshot(String snapshotName, String data, String description, String imageFileName){
         if (savedGamesEnabled) {
             if (savedGames != null)
                 savedGames.requestWriteSnapshot(snapshotName, data, description, imageFileName);
         }else {
-            Log.d(TAG, "Saved Games not enabled. Need to pass in true for the second input of the singleton's init() function to use this functionality.");
+            GpgsLog.w("Saved Games not enabled. Need to pass in true for the second input of the singleton's init() function to use this functionality.");
         }
     }
 
+    /**
+     * Saves raw bytes (a PoolByteArray in Godot) without converting them to a String.
+     *
+     * @godot_callback _on_play_game_services_saved_game_saved(savedWithoutError)
+     */
+    public void requestWriteSnapshotBytes(String snapshotName, byte[] data, String description, String imageFileName){
+        if (savedGamesEnabled) {
+            if (savedGames != null)
+                savedGames.requestWriteSnapshotBytes(snapshotName, data, description, imageFileName);
+        }else {
+            GpgsLog.w("Saved Games not enabled. Need to pass in true for the second input of the singleton's init() function to use this functionality.");
+        }
+    }
+
+    /**
+     * Saves raw bytes with a cover image given as raw RGBA8 pixels, e.g. from
+     * get_viewport().get_texture().get_data() after convert(Image.FORMAT_RGBA8).
+     *
+     * @godot_callback _on_play_game_services_saved_game_saved(savedWithoutError)
+     */
+    public void requestWriteSnapshotWithImage(String snapshotName, byte[] data, String description, byte[] rgba, int width, int height){
+        if (savedGamesEnabled) {
+            if (savedGames != null)
+                savedGames.requestWriteSnapshotWithImage(snapshotName, data, description, rgba, width, height);
+        }else {
+            GpgsLog.w("Saved Games not enabled. Need to pass in true for the second input of the singleton's init() function to use this functionality.");
+        }
+    }
+
+    /**
+     * A save cached for the version Play Games lists on the device is returned without waiting
+     * for the network. It is checked against the server afterwards: if another device has saved
+     * a newer version, that one is downloaded into the cache and
+     * _on_play_game_services_saved_game_changed(snapshotName) follows, so loading again gets it.
+     *
+     * @godot_callback _on_play_game_services_saved_game_loaded(data, loadedWithoutError)
+     */
     public void requestLoadSnapshot(String snapshotName){
         if (savedGamesEnabled) {
             if (savedGames != null)
                 savedGames.requestLoadSnapshot(snapshotName);
         }else {
-            Log.d(TAG, "Saved Games not enabled. Need to pass in true for the second input of the singleton's init() function to use this functionality.");
+            GpgsLog.w("Saved Games not enabled. Need to pass in true for the second input of the singleton's init() function to use this functionality.");
+        }
+    }
+
+    /**
+     * Loads a save as raw bytes (a PoolByteArray in Godot) without converting it to a String.
+     *
+     * @godot_callback _on_play_game_services_saved_game_loaded_bytes(data, loadedWithoutError)
+     */
+    public void requestLoadSnapshotBytes(String snapshotName){
+        if (savedGamesEnabled) {
+            if (savedGames != null)
+                savedGames.requestLoadSnapshotBytes(snapshotName);
+        }else {
+            GpgsLog.w("Saved Games not enabled. Need to pass in true for the second input of the singleton's init() function to use this functionality.");
+        }
+    }
+
+    /**
+     * Loads the metadata of the player's saves for a custom save menu. After the first load the
+     * listing is kept in memory; pass forceReload to fetch it again.
+     *
+     * @godot_callback _on_play_game_services_saved_games_listed(count, listedWithoutError)
+     */
+    public void requestSnapshotList(boolean forceReload){
+        if (savedGamesEnabled) {
+            if (savedGames != null)
+                savedGames.requestSnapshotList(forceReload);
+        }else {
+            GpgsLog.w("Saved Games not enabled. Need to pass in true for the second input of the singleton's init() function to use this functionality.");
         }
     }
 
+    /**
+     * @return up to count saves starting at offset, newest first. Each is a Dictionary with name,
+     *         description, last_modified, played_time, progress_value, cover_image_uri and
+     *         device_name.
+     */
+    public Object[] getSnapshotListPage(int offset, int count){
+        if (savedGames == null) return new Object[0];
+        return savedGames.getSnapshotListPage(offset, count);
+    }
+
     //endregion
 
     /**
@@ -324,14 +888,7 @@ public class GooglePlayGameServices extends GodotPlugin {
      * @param delimiter The string that separates the IDs in the ids string
      */
     private void setInstanceIDsFromString(String ids, String delimiter){
-        String[] splitIDs = ids.split(delimiter);
-
-        for (int i = 0; i < instanceIDs.length; i++){
-            if (i < splitIDs.length) instanceIDs[i] = Integer.parseInt(splitIDs[i]);
-            else instanceIDs[i] = Integer.parseInt(splitIDs[splitIDs.length - 1]);
-
-            Log.d(TAG, "Instance ID [" + i + "]: " + instanceIDs[i]);
-        }
+        InstanceIDs.parse(ids, delimiter, instanceIDs);
     }
 
     @NonNull
@@ -344,15 +901,25 @@ public class GooglePlayGameServices extends GodotPlugin {
     @Override
     public List<String> getPluginMethods() {
         return Arrays.asList(
-                "init", "clearCache","keepScreenOn","getDelimiter",
-                "signInInteractive", "signInSilent", "signOut",
-                "isOnline", "isWifiConnected", "isMobileConnected",
+                "init", "clearCache","configureCache","setCacheImageFormat","getCacheStats","getMetrics","takeMetrics",
+                "setTaskPolicy","setCircuitBreaker","cancelTasks","getTaskStats",
+                "setLogLevel","dumpLog","clearLog","runLoadTest","keepScreenOn","getDelimiter","getSessionClientReuseCount",
+                "setEventMode","pollEvents","getDroppedEventCount",
+                "signInInteractive", "signInSilent", "signOut", "setSignInWarmUp",
+                "isOnline", "isWifiConnected", "isMobileConnected", "getNetworkState",
+                "setTransferConcurrency", "getTransferStats",
                 "getCurrentPlayerID","getCurrentPlayerDisplayName","getCurrentPlayerTitle",
                 "getCurrentPlayerLevel","getCurrentPlayerXP","getCurrentPlayerMaxXP","getCurrentPlayerMinXP",
-                "requestCurrentPlayerIcon","requestCurrentPlayerBanner",
+                "getCurrentPlayerProfile","getCurrentPlayerProfileVersion",
+                "requestCurrentPlayerIcon","requestCurrentPlayerBanner","requestPlayerIcons","setPlayerIconConcurrency",
                 "showAchievementsUI","unlockAchievement","incrementAchievement",
-                "showLeaderboardUI","submitScore",
-                "showSavedGamesUI","requestWriteSnapshot","requestLoadSnapshot"
+                "showLeaderboardUI","submitScore","flushScores","setScoreSubmitInterval","setLeaderboardLowerIsBetter",
+                "showSavedGamesUI","requestWriteSnapshot","requestLoadSnapshot",
+                "requestWriteSnapshotBytes","requestLoadSnapshotBytes","setSnapshotCompression",
+                "requestWriteSnapshotWithImage","setSnapshotCoverImageLimits",
+                "setSnapshotWriteQuietPeriod","flushSnapshotWrites",
+                "setSnapshotConflictPolicy","setSnapshotConflictStrategy","setSnapshotConflictTimeout","resolveSnapshotConflict",
+                "requestSnapshotList","getSnapshotListPage"
         );
     }
 
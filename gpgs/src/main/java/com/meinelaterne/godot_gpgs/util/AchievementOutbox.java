@@ -0,0 +1,354 @@
+package com.meinelaterne.godot_gpgs.util;
+
+import android.app.Activity;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Durable queue for achievement unlocks and increments. Events only touch memory and append a
+ * line to a journal; pending increments for the same achievement are merged into one number and
+ * unlocks that are already queued or confirmed are skipped. Whenever a backend is available the
+ * queue is flushed in batches. Unlocks are sent until confirmed; increments are only sent again
+ * if their call failed before it reached Play Games, so they are never counted twice.
+ *
+ * The queue belongs to an account and is kept in a journal of its own. Events from before the
+ * first sign-in belong to the first account that signs in; after that events go to the last
+ * signed in account until another one signs in.
+ */
+public class AchievementOutbox {
+    private static final String JOURNAL_NAME = "achievements.journal";
+
+    // Journal record types
+    private static final String OP_UNLOCK = "U";        // U <id>          unlock queued
+    private static final String OP_UNLOCKED = "D";      // D <id>          unlock confirmed
+    private static final String OP_INCREMENT = "I";     // I <id> <steps>  increment queued
+    private static final String OP_INCREMENTED = "C";   // C <id> <steps>  increment confirmed
+
+    private static final int FLUSH_BATCH_SIZE = 20;
+    private static final long FLUSH_DELAY_MS = 3000;
+
+    private final Activity activity;
+    private final String journalName;
+    private Journal journal;
+    // null until the first account signs in
+    private String accountID = null;
+    // Tells completions of a batch sent for an earlier account apart
+    private int accountGeneration = 0;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private final Set<String> pendingUnlocks = new LinkedHashSet<>();
+    private final Map<String, Integer> pendingIncrements = new LinkedHashMap<>();
+    private final Set<String> unlocked = new HashSet<>();
+
+    private GamesBackend backend = null;
+    private boolean flushing = false;
+    private boolean flushScheduled = false;
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (AchievementOutbox.this) {
+                flushScheduled = false;
+            }
+            flush();
+        }
+    };
+
+    public AchievementOutbox(Activity activity) {
+        this(activity, JOURNAL_NAME);
+    }
+
+    /**
+     * @param journalName file the queue is kept in, e.g. a separate one for load tests
+     */
+    public AchievementOutbox(Activity activity, String journalName) {
+        this.activity = activity;
+        this.journalName = journalName;
+        journal = Journal.open(activity, journalName);
+        replay(journal.readAll());
+    }
+
+    /**
+     * @param backend the backend of the signed in account, or null once signed out
+     */
+    public synchronized void setBackend(GamesBackend backend) {
+        this.backend = backend;
+        if (backend == null) return;
+        if (!backend.getAccountID().equals(accountID)) switchAccount(backend.getAccountID());
+        scheduleFlush(0);
+    }
+
+    /**
+     * Stores the current account's queue and loads the one of newAccountID.
+     */
+    private void switchAccount(String newAccountID) {
+        Set<String> carriedUnlocks = new LinkedHashSet<>();
+        Map<String, Integer> carriedIncrements = new LinkedHashMap<>();
+        if (accountID == null) {
+            carriedUnlocks.addAll(pendingUnlocks);
+            carriedIncrements.putAll(pendingIncrements);
+            journal.delete();
+        } else {
+            compact();
+            journal.close();
+        }
+
+        GpgsLog.d("AchievementOutbox: switching account");
+        handler.removeCallbacks(flushRunnable);
+        flushScheduled = false;
+        flushing = false;
+        accountGeneration++;
+        pendingUnlocks.clear();
+        pendingIncrements.clear();
+        unlocked.clear();
+
+        accountID = newAccountID;
+        journal = Journal.openForAccount(activity, journalName, newAccountID);
+        replay(journal.readAll());
+
+        if (carriedUnlocks.isEmpty() && carriedIncrements.isEmpty()) return;
+        for (String achievementID : carriedUnlocks) {
+            if (!unlocked.contains(achievementID)) pendingUnlocks.add(achievementID);
+            pendingIncrements.remove(achievementID);
+        }
+        for (Map.Entry<String, Integer> entry : carriedIncrements.entrySet()) {
+            addSteps(entry.getKey(), entry.getValue());
+        }
+        compact();
+    }
+
+    public synchronized void unlock(String achievementID) {
+        if (unlocked.contains(achievementID) || !pendingUnlocks.add(achievementID)) return;
+
+        // An unlocked achievement does not need its remaining steps
+        pendingIncrements.remove(achievementID);
+        journal.append(OP_UNLOCK, achievementID);
+        scheduleFlush(FLUSH_DELAY_MS);
+    }
+
+    public synchronized void increment(String achievementID, int steps) {
+        if (steps <= 0 || unlocked.contains(achievementID) || pendingUnlocks.contains(achievementID)) return;
+
+        addSteps(achievementID, steps);
+        journal.append(OP_INCREMENT, achievementID, Integer.toString(steps));
+        scheduleFlush(FLUSH_DELAY_MS);
+    }
+
+    public synchronized int getPendingCount() {
+        return pendingUnlocks.size() + pendingIncrements.size();
+    }
+
+    /**
+     * Drops everything that is pending and deletes the journal, for outboxes that are thrown
+     * away after use such as the load test's.
+     */
+    public synchronized void discard() {
+        backend = null;
+        handler.removeCallbacks(flushRunnable);
+        flushScheduled = false;
+        pendingUnlocks.clear();
+        pendingIncrements.clear();
+        unlocked.clear();
+        journal.delete();
+    }
+
+    /**
+     * Sends the next batch of pending events right away. Further batches follow as soon as the
+     * current one has completed. Does nothing while signed out.
+     */
+    public synchronized void flush() {
+        if (flushing || backend == null) return;
+        if (pendingUnlocks.isEmpty() && pendingIncrements.isEmpty()) return;
+
+        flushing = true;
+        final int generation = accountGeneration;
+        final String batchAccountID = accountID;
+        List<Task<?>> batch = new ArrayList<>();
+
+        Iterator<String> unlocks = pendingUnlocks.iterator();
+        while (unlocks.hasNext() && batch.size() < FLUSH_BATCH_SIZE) {
+            final String achievementID = unlocks.next();
+            batch.add(backend.unlockAchievement(achievementID)
+                    .addOnCompleteListener(new OnCompleteListener<Void>() {
+                        @Override
+                        public void onComplete(@NonNull Task<Void> task) {
+                            onUnlockComplete(generation, batchAccountID, achievementID, task.isSuccessful());
+                        }
+                    }));
+        }
+
+        Iterator<Map.Entry<String, Integer>> increments = pendingIncrements.entrySet().iterator();
+        while (increments.hasNext() && batch.size() < FLUSH_BATCH_SIZE) {
+            Map.Entry<String, Integer> entry = increments.next();
+            final String achievementID = entry.getKey();
+            final int steps = entry.getValue();
+            // Taken out of the queue while in flight; added back if the call fails before it is sent
+            increments.remove();
+            batch.add(backend.incrementAchievement(achievementID, steps)
+                    .addOnCompleteListener(new OnCompleteListener<Boolean>() {
+                        @Override
+                        public void onComplete(@NonNull Task<Boolean> task) {
+                            onIncrementComplete(generation, batchAccountID, achievementID, steps, task);
+                        }
+                    }));
+        }
+
+        GpgsLog.d("AchievementOutbox.flush(): achievement updates sent: ", batch.size());
+        Tasks.whenAllComplete(batch).addOnCompleteListener(new OnCompleteListener<List<Task<?>>>() {
+            @Override
+            public void onComplete(@NonNull Task<List<Task<?>>> task) {
+                onBatchComplete(generation, task.getResult());
+            }
+        });
+    }
+
+    /**
+     * Completions for an earlier account only go to that account's journal, which was compacted
+     * while they were in flight: confirmed unlocks are recorded and unsent increments queued again.
+     */
+    private synchronized void onUnlockComplete(int generation, String batchAccountID, String achievementID, boolean success) {
+        if (!success) return;
+        if (generation != accountGeneration) {
+            appendForAccount(batchAccountID, OP_UNLOCKED, achievementID);
+            return;
+        }
+        pendingUnlocks.remove(achievementID);
+        unlocked.add(achievementID);
+        journal.append(OP_UNLOCKED, achievementID);
+    }
+
+    /**
+     * Steps are only queued again if the call failed before it was sent. After a timeout,
+     * cancellation or network error Play Games may have applied them already, and sending them
+     * again could count them twice, so they are settled as if confirmed.
+     */
+    private synchronized void onIncrementComplete(int generation, String batchAccountID, String achievementID, int steps, Task<Boolean> task) {
+        boolean requeue = !task.isSuccessful() && task.getException() != null
+                && TaskGuard.failedBeforeSending(task.getException());
+        if (!task.isSuccessful() && !requeue) {
+            GpgsLog.w("AchievementOutbox: increment outcome unknown, not sending it again: ", achievementID);
+        }
+
+        if (generation != accountGeneration) {
+            if (requeue) appendForAccount(batchAccountID, OP_INCREMENT, achievementID, Integer.toString(steps));
+            return;
+        }
+        if (requeue) {
+            addSteps(achievementID, steps);
+        } else {
+            journal.append(OP_INCREMENTED, achievementID, Integer.toString(steps));
+        }
+    }
+
+    private synchronized void onBatchComplete(int generation, List<Task<?>> batch) {
+        if (generation != accountGeneration) return;
+        flushing = false;
+
+        boolean failed = false;
+        if (batch != null) {
+            for (Task<?> task : batch) {
+                if (!task.isSuccessful()) failed = true;
+            }
+        }
+
+        compact();
+
+        // Most likely offline; try again with the next event or account change
+        if (failed) {
+            GpgsLog.d("AchievementOutbox: batch incomplete, updates still pending: ", getPendingCount());
+            return;
+        }
+        if (!pendingUnlocks.isEmpty() || !pendingIncrements.isEmpty()) scheduleFlush(0);
+    }
+
+    /**
+     * Adds a record to the journal of an account that is no longer the current one.
+     */
+    private void appendForAccount(String batchAccountID, String... fields) {
+        Journal batchJournal = Journal.openForAccount(activity, journalName, batchAccountID);
+        batchJournal.append(fields);
+        batchJournal.close();
+    }
+
+    private void scheduleFlush(long delayMs) {
+        if (backend == null) return;
+        if (flushScheduled) {
+            if (delayMs > 0) return;
+            handler.removeCallbacks(flushRunnable);
+        }
+        flushScheduled = true;
+        handler.postDelayed(flushRunnable, delayMs);
+    }
+
+    /**
+     * Rewrites the journal so it only holds the current state instead of every event so far.
+     */
+    private void compact() {
+        List<String[]> records = new ArrayList<>();
+        for (String achievementID : unlocked) {
+            records.add(new String[] { OP_UNLOCKED, achievementID });
+        }
+        for (String achievementID : pendingUnlocks) {
+            records.add(new String[] { OP_UNLOCK, achievementID });
+        }
+        for (Map.Entry<String, Integer> entry : pendingIncrements.entrySet()) {
+            records.add(new String[] { OP_INCREMENT, entry.getKey(), entry.getValue().toString() });
+        }
+        journal.rewrite(records);
+    }
+
+    private void replay(List<String[]> records) {
+        for (String[] record : records) {
+            if (record.length < 2) continue;
+            String achievementID = record[1];
+
+            try {
+                switch (record[0]) {
+                    case OP_UNLOCK:
+                        if (!unlocked.contains(achievementID)) pendingUnlocks.add(achievementID);
+                        pendingIncrements.remove(achievementID);
+                        break;
+                    case OP_UNLOCKED:
+                        unlocked.add(achievementID);
+                        pendingUnlocks.remove(achievementID);
+                        pendingIncrements.remove(achievementID);
+                        break;
+                    case OP_INCREMENT:
+                        addSteps(achievementID, Integer.parseInt(record[2]));
+                        break;
+                    case OP_INCREMENTED:
+                        addSteps(achievementID, -Integer.parseInt(record[2]));
+                        break;
+                }
+            } catch (RuntimeException e) {
+                GpgsLog.d("AchievementOutbox: skipping malformed journal record");
+            }
+        }
+        GpgsLog.d("AchievementOutbox: achievement updates pending from journal: ", getPendingCount());
+    }
+
+    private void addSteps(String achievementID, int steps) {
+        if (unlocked.contains(achievementID) || pendingUnlocks.contains(achievementID)) return;
+
+        Integer pending = pendingIncrements.get(achievementID);
+        // Saturates instead of wrapping around when a lot of steps pile up
+        long total = Math.min((long) (pending == null ? 0 : pending) + steps, Integer.MAX_VALUE);
+        if (total > 0) pendingIncrements.put(achievementID, (int) total);
+        else pendingIncrements.remove(achievementID);
+    }
+}
@@ -3,8 +3,6 @@ package com.meinelaterne.godot_gpgs.util;
 import android.app.Activity;
 import android.content.Intent;
 
-import com.google.android.gms.auth.api.signin.GoogleSignInAccount;
-import com.google.android.gms.games.Games;
 import com.google.android.gms.tasks.OnSuccessListener;
 
 public class Achievements {
@@ -14,17 +12,20 @@ public class Achievements {
 
     private Activity activity = null;
     private int instance_id = 0;
-    private GoogleSignInAccount signedInAccount = null;
+    private GamesSession session = null;
 
-    public Achievements(Activity activity, GoogleSignInAccount signedInAccount, int instance_id) {
-        this.signedInAccount = signedInAccount;
+    public Achievements(Activity activity, int instance_id) {
         this.activity = activity;
         this.instance_id = instance_id;
     }
 
+    public void setSession(GamesSession session) {
+        this.session = session;
+    }
+
     public boolean showAchievementsUI(){
-        if (signedInAccount != null){
-            Games.getAchievementsClient(activity,signedInAccount)
+        if (session != null){
+            session.getAchievementsClient()
                     .getAchievementsIntent()
                     .addOnSuccessListener(new OnSuccessListener<Intent>() {
                         @Override
@@ -36,14 +37,4 @@ public class Achievements {
         }
         return false;
     }
-
-    public void unlockAchievement(String achievementID){
-        if (signedInAccount != null)
-            Games.getAchievementsClient(activity, signedInAccount).unlock(achievementID);
-    }
-
-    public void incrementAchievement(String achievementID, int incrementBy){
-        if (signedInAccount != null)
-            Games.getAchievementsClient(activity,signedInAccount).increment(achievementID, incrementBy);
-    }
 }
@@ -0,0 +1,184 @@
+package com.meinelaterne.godot_gpgs.util;
+
+import android.app.Activity;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Loads the avatars of many players through {@link GodotCache} with a bounded number of downloads
+ * at a time. Visible rows are fetched first, and finished images are reported to Godot in batches
+ * instead of one callback per player.
+ */
+public class AvatarFetcher {
+    private static final String[] GODOT_CALLBACK_FUNCTIONS = new String[] {
+            "_on_play_game_services_player_icons_loaded", //(int requestID, String[] playerIDs, String folder, String[] fileNames, int done, int total)
+    };
+
+    private static final int DEFAULT_CONCURRENCY = 4;
+    private static final int REPORT_BATCH_SIZE = 8;
+    private static final long REPORT_DELAY_MS = 100;
+
+    private static class Item {
+        final int requestID;
+        final String playerID;
+        final Uri uri;
+
+        Item(int requestID, String playerID, Uri uri) {
+            this.requestID = requestID;
+            this.playerID = playerID;
+            this.uri = uri;
+        }
+    }
+
+    private static class Request {
+        final int requestID;
+        final int total;
+        int done = 0;
+        final List<String> readyPlayerIDs = new ArrayList<>();
+        final List<String> readyFileNames = new ArrayList<>();
+
+        Request(int requestID, int total) {
+            this.requestID = requestID;
+            this.total = total;
+        }
+    }
+
+    private final int instance_id;
+    private final GodotCache imageCache;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private final Deque<Item> queue = new ArrayDeque<>();
+    private final List<Request> requests = new ArrayList<>();
+
+    private int concurrency = DEFAULT_CONCURRENCY;
+    private int active = 0;
+    private int nextRequestID = 1;
+    private boolean pumping = false;
+    private boolean reportScheduled = false;
+
+    private final Runnable reportRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (AvatarFetcher.this) {
+                reportScheduled = false;
+                report();
+            }
+        }
+    };
+
+    public AvatarFetcher(Activity activity, int instance_id) {
+        this.instance_id = instance_id;
+        imageCache = new GodotCache(activity, instance_id);
+    }
+
+    public synchronized void setConcurrency(int concurrency) {
+        this.concurrency = Math.max(1, concurrency);
+        pump();
+    }
+
+    /**
+     * @param playerIDs    the players whose avatars should be loaded
+     * @param imageURIs    the image URI of each player, in the same order
+     * @param firstVisible index of the first row currently on screen
+     * @param visibleCount number of rows currently on screen; these are fetched before the rest
+     * @return the request ID passed to the progress callback, or 0 if the input is invalid
+     */
+    public synchronized int fetch(String[] playerIDs, String[] imageURIs, int firstVisible, int visibleCount) {
+        if (playerIDs == null || imageURIs == null || playerIDs.length != imageURIs.length || playerIDs.length == 0) {
+            GpgsLog.d("AvatarFetcher.fetch(): playerIDs and imageURIs must be non-empty and of equal length");
+            return 0;
+        }
+
+        int requestID = nextRequestID++;
+        requests.add(new Request(requestID, playerIDs.length));
+
+        int visibleEnd = Math.min(playerIDs.length, Math.max(0, firstVisible) + Math.max(0, visibleCount));
+        List<Item> visible = new ArrayList<>();
+        for (int i = 0; i < playerIDs.length; i++) {
+            Item item = new Item(requestID, playerIDs[i], Uri.parse(imageURIs[i]));
+            if (i >= firstVisible && i < visibleEnd) visible.add(item);
+            else queue.addLast(item);
+        }
+
+        // Visible rows jump ahead of anything still waiting from earlier requests
+        for (int i = visible.size() - 1; i >= 0; i--) {
+            queue.addFirst(visible.get(i));
+        }
+
+        pump();
+        return requestID;
+    }
+
+    private void pump() {
+        // Cache hits complete synchronously; the outer loop keeps going instead of recursing
+        if (pumping) return;
+        pumping = true;
+        while (active < concurrency && !queue.isEmpty()) {
+            final Item item = queue.pollFirst();
+            active++;
+            imageCache.cacheURIImage(item.uri, item.playerID + "_icon.png", new GodotCache.OnImageCachedListener() {
+                @Override
+                public void onImageCached(String fileName, boolean stored) {
+                    onItemComplete(item, stored ? fileName : "");
+                }
+            });
+        }
+        pumping = false;
+    }
+
+    private synchronized void onItemComplete(Item item, String fileName) {
+        active--;
+
+        Request request = findRequest(item.requestID);
+        if (request != null) {
+            request.done++;
+            request.readyPlayerIDs.add(item.playerID);
+            request.readyFileNames.add(fileName);
+
+            if (request.readyPlayerIDs.size() >= REPORT_BATCH_SIZE || request.done == request.total) {
+                report();
+            } else if (!reportScheduled) {
+                reportScheduled = true;
+                handler.postDelayed(reportRunnable, REPORT_DELAY_MS);
+            }
+        }
+
+        pump();
+    }
+
+    /**
+     * Sends everything finished so far to Godot, one callback per request. Players whose image
+     * could not be loaded are reported with an empty file name.
+     */
+    private void report() {
+        for (int i = requests.size() - 1; i >= 0; i--) {
+            Request request = requests.get(i);
+            if (request.readyPlayerIDs.isEmpty()) continue;
+
+            EventDispatcher.send(instance_id, GODOT_CALLBACK_FUNCTIONS[0], new Object[] {
+                    request.requestID,
+                    request.readyPlayerIDs.toArray(new String[0]),
+                    GodotCache.CACHE_FOLDER,
+                    request.readyFileNames.toArray(new String[0]),
+                    request.done,
+                    request.total });
+            request.readyPlayerIDs.clear();
+            request.readyFileNames.clear();
+
+            if (request.done == request.total) requests.remove(i);
+        }
+    }
+
+    private Request findRequest(int requestID) {
+        for (Request request : requests) {
+            if (request.requestID == requestID) return request;
+        }
+        return null;
+    }
+}
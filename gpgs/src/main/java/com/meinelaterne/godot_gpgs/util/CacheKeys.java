@@ -0,0 +1,32 @@
+package com.meinelaterne.godot_gpgs.util;
+
+/**
+ * File name handling for the image cache. Kept free of Android types so it can be benchmarked
+ * on a plain JVM.
+ */
+public class CacheKeys {
+
+    private static final String PNG_EXTENSION = ".png";
+    private static final String WEBP_EXTENSION = ".webp";
+
+    private CacheKeys() {
+    }
+
+    /**
+     * @return the last segment of fileName if it is formatted as a path, otherwise fileName
+     */
+    public static String stripPath(String fileName) {
+        int slash = fileName.lastIndexOf('/');
+        return slash < 0 ? fileName : fileName.substring(slash + 1);
+    }
+
+    /**
+     * Callers name cache files with a .png extension; the extension follows the configured
+     * format so Godot picks the right loader.
+     */
+    public static String forFormat(String fileName, boolean webp) {
+        if (webp && fileName.endsWith(PNG_EXTENSION))
+            return fileName.substring(0, fileName.length() - PNG_EXTENSION.length()) + WEBP_EXTENSION;
+        return fileName;
+    }
+}
@@ -2,7 +2,7 @@ package com.meinelaterne.godot_gpgs.util;
 
 import android.app.Activity;
 import android.content.Intent;
-import android.util.Log;
+import android.os.SystemClock;
 
 import androidx.annotation.NonNull;
 
@@ -15,20 +15,26 @@ import com.google.android.gms.auth.api.signin.GoogleSignInResult;
 import com.google.android.gms.common.Scopes;
 import com.google.android.gms.common.api.ApiException;
 import com.google.android.gms.common.api.Scope;
-import com.google.android.gms.games.Games;
-import com.google.android.gms.games.Player;
-import com.google.android.gms.games.PlayersClient;
+import com.google.android.gms.tasks.Continuation;
 import com.google.android.gms.tasks.OnCompleteListener;
 import com.google.android.gms.tasks.OnFailureListener;
 import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
 import com.meinelaterne.godot_gpgs.GooglePlayGameServices;
 
-import org.godotengine.godot.GodotLib;
+import org.godotengine.godot.Dictionary;
 
-public class Client {
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
 
-    private static final String TAG = "gpgs";
+public class Client {
 
     private static final int SIGN_IN_SILENT = 0;
     private static final int SIGN_IN_INTERACTIVE = 1;
@@ -38,14 +44,31 @@ public class Client {
             "_on_play_game_services_player_info_failure", //(int signInType)
             "_on_play_game_services_sign_in_failure", //(int signInType)
             "_on_play_game_services_sign_out", //(boolean success)
+            "_on_play_game_services_player_profile_changed", //(Dictionary profile)
+            "_on_play_game_services_warm_up_completed", //(Dictionary timings)
     };
 
+    private static final String PROFILE_STORE_NAME = "player_profile";
+
+    // What is loaded right after signing in, next to the player itself
+    public static final int WARM_UP_ACHIEVEMENTS = 1;
+    public static final int WARM_UP_SNAPSHOTS = 2;
+    public static final int WARM_UP_ICON = 4;
+
     // Request code used to invoke sign in user interactions.
     private static final int RC_SIGN_IN = 9001;
 
     // Client used to sign in with Google APIs
     private GoogleSignInClient mGoogleSignInClient = null;
 
+    // Needed to check if the last signed in account can be reused as it is
+    private GoogleSignInOptions signInOptions = null;
+    private boolean snapshotsEnabled = false;
+
+    private int warmUpPhases = WARM_UP_ACHIEVEMENTS | WARM_UP_SNAPSHOTS | WARM_UP_ICON;
+    private long signInStartedAt = 0;
+    private boolean signedInFromLastAccount = false;
+
     // The currently signed in account, used to check the account has changed outside of this activity when resuming.
     GoogleSignInAccount mSignedInAccount = null;
 
@@ -60,31 +83,47 @@ public class Client {
 
     public PlayerInfo currentPlayer = null;
 
+    // Built once per sign-in or change, so Godot reads the whole profile with one call
+    private PlayerProfile profile = null;
+    private Dictionary profileDictionary = PlayerProfile.EMPTY.toDictionary(0, false, "");
+    private int profileVersion = 0;
+
+    // The profile of the last session is shown until Play Games confirms or replaces it
+    private final Journal profileStore;
+    private boolean profileStale = false;
+    private String iconFileName = "";
+
     public Client(final Activity activity, final int instance_id, GooglePlayGameServices gpgs, boolean buildSnapshots) {
         this.instance_id = instance_id;
         this.activity = activity;
         this.gpgs = gpgs;
 
-        Log.d(TAG, "Client()");
+        GpgsLog.d("Client()");
+
+        profileStore = Journal.open(activity, PROFILE_STORE_NAME);
+        loadStoredProfile();
 
         // Create the client used to sign in.
+        snapshotsEnabled = buildSnapshots;
         if (buildSnapshots){
-            Log.d(TAG, "Creating sign in client with Saved Games functionality");
-            GoogleSignInOptions signInOptions = new GoogleSignInOptions.Builder(GoogleSignInOptions.DEFAULT_GAMES_SIGN_IN)
+            GpgsLog.d("Creating sign in client with Saved Games functionality");
+            signInOptions = new GoogleSignInOptions.Builder(GoogleSignInOptions.DEFAULT_GAMES_SIGN_IN)
                     .requestScopes(new Scope(Scopes.DRIVE_APPFOLDER))
                     .build();
-            mGoogleSignInClient = GoogleSignIn.getClient(activity, signInOptions);
         }else{
-            Log.d(TAG, "Creating sign in client");
-            mGoogleSignInClient = GoogleSignIn.getClient(activity, GoogleSignInOptions.DEFAULT_GAMES_SIGN_IN);
+            GpgsLog.d("Creating sign in client");
+            signInOptions = GoogleSignInOptions.DEFAULT_GAMES_SIGN_IN;
         }
+        mGoogleSignInClient = GoogleSignIn.getClient(activity, signInOptions);
     }
 
     /**
      * Start a sign in activity.
      */
     public void signInInteractive() {
-        Log.d(TAG, "signInInteractive()");
+        GpgsLog.d("signInInteractive()");
+        signInStartedAt = SystemClock.elapsedRealtime();
+        signedInFromLastAccount = false;
         activity.startActivityForResult(mGoogleSignInClient.getSignInIntent(), RC_SIGN_IN);
     }
 
@@ -92,38 +131,69 @@ public class Client {
     /**
      * Try to sign in without displaying dialogs to the user.
      * If the user has already signed in previously, it will not show dialog.
+     * An account that is still signed in with all required scopes and has not expired is used
+     * right away, without waiting for silentSignIn().
      */
     public void signInSilent() {
-        Log.d(TAG, "signInSilent()");
-        mGoogleSignInClient.silentSignIn().addOnCompleteListener(activity, new OnCompleteListener<GoogleSignInAccount>() {
+        GpgsLog.d("signInSilent()");
+        signInStartedAt = SystemClock.elapsedRealtime();
+
+        GoogleSignInAccount lastAccount = GoogleSignIn.getLastSignedInAccount(activity);
+        // An expired account would fail every call until silentSignIn() refreshes it
+        if (lastAccount != null && !lastAccount.isExpired()
+                && GoogleSignIn.hasPermissions(lastAccount, signInOptions.getScopeArray())) {
+            GpgsLog.d("signInSilent(): reusing last signed in account");
+            signedInFromLastAccount = true;
+            Metrics.record(Metrics.OP_SIGN_IN_CACHED, signInStartedAt, Metrics.OUTCOME_SUCCESS);
+            onConnected(lastAccount, SIGN_IN_SILENT);
+            return;
+        }
+
+        signedInFromLastAccount = false;
+        Task<GoogleSignInAccount> signIn = gpgs.getTaskGuard().run(TaskGuard.OP_SIGN_IN, new Callable<Task<GoogleSignInAccount>>() {
+            @Override
+            public Task<GoogleSignInAccount> call() {
+                return mGoogleSignInClient.silentSignIn();
+            }
+        });
+        Metrics.track(Metrics.OP_SIGN_IN, signIn).addOnCompleteListener(activity, new OnCompleteListener<GoogleSignInAccount>() {
             @Override
             public void onComplete(@NonNull Task<GoogleSignInAccount> task) {
                 if (task.isSuccessful()) {
-                    Log.d(TAG, "signInSilent(): success");
+                    GpgsLog.d("signInSilent(): success");
                     onConnected(task.getResult(), SIGN_IN_SILENT);
                 } else {
-                    Log.d(TAG, "signInSilent(): failure", task.getException());
+                    GpgsLog.d("signInSilent(): failure: ", task.getException());
                     onDisconnected();
-                    GodotLib.calldeferred(instance_id, GODOT_CALLBACK_FUNCTIONS[2], new Object[] { SIGN_IN_SILENT });
+                    EventDispatcher.send(instance_id, GODOT_CALLBACK_FUNCTIONS[2], new Object[] { SIGN_IN_SILENT });
                 }
             }
         });
     }
 
+    /**
+     * Lets go of the stored profile's journal, for a client that is replaced by another one.
+     */
+    public void close() {
+        profileStore.close();
+    }
+
     public void signOut() {
-        Log.d(TAG, "signOut()");
+        GpgsLog.d("signOut()");
 
         mGoogleSignInClient.signOut().addOnCompleteListener(activity, new OnCompleteListener<Void>() {
             @Override
             public void onComplete(@NonNull Task<Void> task) {
                 if (task.isSuccessful()) {
-                    Log.d(TAG, "signOut(): success");
+                    GpgsLog.d("signOut(): success");
                     onDisconnected();
-                    GodotLib.calldeferred(instance_id, GODOT_CALLBACK_FUNCTIONS[3], new Object[] { true });
+                    forgetStoredProfile();
+                    setProfile(null);
+                    EventDispatcher.send(instance_id, GODOT_CALLBACK_FUNCTIONS[3], new Object[] { true });
                 } else {
                     int code = ((ApiException) task.getException()).getStatusCode();
-                    Log.d(TAG, "signOut() failed with API Exception status code: " + code);
-                    GodotLib.calldeferred(instance_id, GODOT_CALLBACK_FUNCTIONS[3], new Object[] { false });
+                    GpgsLog.d("signOut() failed with API Exception status code: ", code);
+                    EventDispatcher.send(instance_id, GODOT_CALLBACK_FUNCTIONS[3], new Object[] { false });
                 }
             }
         });
@@ -134,14 +204,14 @@ public class Client {
             GoogleSignInResult result = Auth.GoogleSignInApi.getSignInResultFromIntent(intent);
 
             if (result == null) {
-                Log.d(TAG, "Client.onMainActivityResult: condition result == null is true. aborting.");
+                GpgsLog.d("Client.onMainActivityResult: condition result == null is true. aborting.");
                 return;
             }
 
             if (result.isSuccess()) {
                 GoogleSignInAccount signedInAccount = result.getSignInAccount();
                 if (signedInAccount == null) {
-                    Log.d(TAG, "Client.onMainActivityResult: Received null from result.getSignInAccount(). Aborting.");
+                    GpgsLog.d("Client.onMainActivityResult: Received null from result.getSignInAccount(). Aborting.");
                     return;
                 }
 
@@ -149,51 +219,243 @@ public class Client {
 
                 // This line was needed to show the popups for "Welcome back", "achievement unlocked", etc.
                 // Ugh, this thing was annoying to figure out haha.
-                Games.getGamesClient(activity, signedInAccount).setViewForPopups(activity.findViewById(android.R.id.content));
+                gpgs.getSession().getGamesClient().setViewForPopups(activity.findViewById(android.R.id.content));
             } else {
                 String message = result.getStatus().getStatusMessage();
                 if (message != null) {
-                    Log.d(TAG, "Connection error. ApiException message: " + message);
+                    GpgsLog.d("Connection error. ApiException message: ", message);
                 }
                 onDisconnected();
-                GodotLib.calldeferred(instance_id, GODOT_CALLBACK_FUNCTIONS[2], new Object[]{SIGN_IN_INTERACTIVE});
+                EventDispatcher.send(instance_id, GODOT_CALLBACK_FUNCTIONS[2], new Object[]{SIGN_IN_INTERACTIVE});
             }
         }
     }
 
     private void onConnected(GoogleSignInAccount googleSignInAccount, int signInType) {
-        Log.d(TAG, "onConnected(): connected to Google APIs");
+        GpgsLog.d("onConnected(): connected to Google APIs");
         if (mSignedInAccount != googleSignInAccount) {
             mSignedInAccount = googleSignInAccount;
             gpgs.setClient(mSignedInAccount);
-            getSignedInPlayer(signInType);
+            warmUp(signInType);
         }
     }
 
+    /**
+     * Keeps the profile, marked as stale, so a failed sign-in does not wipe what the game shows.
+     * It is only cleared by signOut() or replaced once another player is loaded.
+     */
     public void onDisconnected() {
-        Log.d(TAG, "onDisconnected()");
+        GpgsLog.d("onDisconnected()");
         mSignedInAccount = null;
         currentPlayer = null;
+        markProfileStale();
         gpgs.removeClient();
     }
 
-    public void getSignedInPlayer(final int signInType){
-        PlayersClient playersClient = Games.getPlayersClient(activity, mSignedInAccount);
-        playersClient.getCurrentPlayer().addOnSuccessListener(new OnSuccessListener<Player>() {
-            @Override
-            public void onSuccess(Player p) {
-                currentPlayer = new PlayerInfo(activity, instance_id, p);
-                Log.d(TAG, p.getPlayerId());
+    public Task<CurrentPlayer> getSignedInPlayer(final int signInType){
+        GamesBackend backend = gpgs.getBackend();
+        if (backend == null) return Tasks.forException(new IllegalStateException("Not signed in"));
 
-                GodotLib.calldeferred(instance_id, GODOT_CALLBACK_FUNCTIONS[0], new Object[] { signInType, p.getPlayerId() });
+        return Metrics.track(Metrics.OP_GET_CURRENT_PLAYER, backend.loadCurrentPlayer()).addOnSuccessListener(new OnSuccessListener<CurrentPlayer>() {
+            @Override
+            public void onSuccess(CurrentPlayer p) {
+                currentPlayer = new PlayerInfo(activity, instance_id, p, new GodotCache.OnImageCachedListener() {
+                    @Override
+                    public void onImageCached(String fileName, boolean stored) {
+                        setIconFileName(fileName);
+                    }
+                });
+                onPlayerLoaded(p.profile);
+                GpgsLog.d("Player ID: ", p.profile.playerID);
+
+                EventDispatcher.send(instance_id, GODOT_CALLBACK_FUNCTIONS[0], new Object[] { signInType, p.profile.playerID });
             }
         })
         .addOnFailureListener(new OnFailureListener() {
             @Override
             public void onFailure(@NonNull Exception e) {
-                Log.d(TAG,"There was a problem getting the player id!");
-                GodotLib.calldeferred(instance_id, GODOT_CALLBACK_FUNCTIONS[1], new Object[] { signInType });
+                GpgsLog.d("There was a problem getting the player id!");
+                EventDispatcher.send(instance_id, GODOT_CALLBACK_FUNCTIONS[1], new Object[] { signInType });
+            }
+        });
+    }
+
+    /**
+     * @param phases WARM_UP_ flags for what is loaded together with the player after signing in
+     */
+    public void setWarmUpPhases(int phases) {
+        warmUpPhases = phases;
+    }
+
+    /**
+     * Loads the player and, at the same time, whatever else is enabled in warmUpPhases, so the
+     * first calls after signing in do not have to wait for Play Games. Godot gets the time every
+     * phase took once all of them are done; -1 means skipped or failed.
+     */
+    private void warmUp(int signInType) {
+        final long startedAt = SystemClock.elapsedRealtime();
+        final Dictionary timings = new Dictionary();
+        timings.put("fast_path", signedInFromLastAccount);
+        timings.put("sign_in_ms", signInStartedAt > 0 ? startedAt - signInStartedAt : -1L);
+
+        GamesBackend backend = gpgs.getBackend();
+        List<Task<?>> phases = new ArrayList<>();
+
+        Task<CurrentPlayer> playerTask = getSignedInPlayer(signInType);
+        phases.add(timed(playerTask, "player_ms", startedAt, timings));
+
+        if ((warmUpPhases & WARM_UP_ACHIEVEMENTS) != 0 && backend != null) {
+            // Only loaded to fill the Play Games cache
+            phases.add(timed(backend.loadAchievements(false), "achievements_ms", startedAt, timings));
+        } else {
+            timings.put("achievements_ms", -1L);
+        }
+
+        SavedGames savedGames = gpgs.getSavedGames();
+        if ((warmUpPhases & WARM_UP_SNAPSHOTS) != 0 && snapshotsEnabled && savedGames != null) {
+            phases.add(timed(savedGames.loadSnapshotList(false), "snapshots_ms", startedAt, timings));
+        } else {
+            timings.put("snapshots_ms", -1L);
+        }
+
+        if ((warmUpPhases & WARM_UP_ICON) != 0) {
+            Task<String> iconTask = playerTask.continueWithTask(new Continuation<CurrentPlayer, Task<String>>() {
+                @Override
+                public Task<String> then(@NonNull Task<CurrentPlayer> task) throws Exception {
+                    task.getResult();
+                    final TaskCompletionSource<String> source = new TaskCompletionSource<>();
+                    currentPlayer.cacheIcon(new GodotCache.OnImageCachedListener() {
+                        @Override
+                        public void onImageCached(String fileName, boolean stored) {
+                            if (stored) source.trySetResult(fileName);
+                            else source.trySetException(new IOException("Player icon could not be loaded"));
+                        }
+                    });
+                    return source.getTask();
+                }
+            });
+            phases.add(timed(iconTask, "icon_ms", startedAt, timings));
+        } else {
+            timings.put("icon_ms", -1L);
+        }
+
+        Tasks.whenAllComplete(phases).addOnCompleteListener(new OnCompleteListener<List<Task<?>>>() {
+            @Override
+            public void onComplete(@NonNull Task<List<Task<?>>> task) {
+                synchronized (timings) {
+                    timings.put("total_ms", SystemClock.elapsedRealtime() - startedAt);
+                }
+                GpgsLog.d("Warm-up completed: ", timings);
+                EventDispatcher.send(instance_id, GODOT_CALLBACK_FUNCTIONS[5], new Object[] { timings });
+            }
+        });
+    }
+
+    private static <T> Task<T> timed(Task<T> task, final String key, final long startedAt, final Dictionary timings) {
+        return task.addOnCompleteListener(new OnCompleteListener<T>() {
+            @Override
+            public void onComplete(@NonNull Task<T> task) {
+                synchronized (timings) {
+                    timings.put(key, task.isSuccessful() ? SystemClock.elapsedRealtime() - startedAt : -1L);
+                }
             }
         });
     }
-}
\ No newline at end of file
+
+    /**
+     * @return the profile of the signed in player, the one stored at the last session while
+     *         signing in, or null if nobody is signed in
+     */
+    public synchronized PlayerProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * @return the profile as a Dictionary with version, stale, icon_path, player_id,
+     *         display_name, title, level, xp, min_xp and max_xp. Empty values once signed out.
+     */
+    public synchronized Dictionary getProfileDictionary() {
+        return profileDictionary;
+    }
+
+    public synchronized int getProfileVersion() {
+        return profileVersion;
+    }
+
+    /**
+     * A fresh profile from Play Games replaces the stored one. Godot is only told about it if
+     * something actually changed.
+     */
+    private void onPlayerLoaded(PlayerProfile fresh) {
+        boolean changed;
+        synchronized (this) {
+            changed = !fresh.equals(profile);
+            if (changed && profile != null && !profile.playerID.equals(fresh.playerID)) iconFileName = "";
+            profile = fresh;
+            profileStale = false;
+            rebuildProfileDictionary();
+            if (changed) storeProfile();
+        }
+        if (changed) {
+            GpgsLog.d("Player profile changed");
+            EventDispatcher.send(instance_id, GODOT_CALLBACK_FUNCTIONS[4], new Object[] { getProfileDictionary() });
+        }
+    }
+
+    private synchronized void setProfile(PlayerProfile newProfile) {
+        if (newProfile == null ? profile == null : newProfile.equals(profile)) return;
+        profile = newProfile;
+        profileStale = false;
+        rebuildProfileDictionary();
+    }
+
+    private synchronized void markProfileStale() {
+        if (profile == null || profileStale) return;
+        profileStale = true;
+        rebuildProfileDictionary();
+    }
+
+    private synchronized void setIconFileName(String fileName) {
+        if (fileName.equals(iconFileName)) return;
+        iconFileName = fileName;
+        rebuildProfileDictionary();
+        storeProfile();
+    }
+
+    private void rebuildProfileDictionary() {
+        profileVersion++;
+        String iconPath = profile != null && !iconFileName.isEmpty() ? GodotCache.CACHE_FOLDER + "/" + iconFileName : "";
+        profileDictionary = (profile != null ? profile : PlayerProfile.EMPTY).toDictionary(profileVersion, profileStale, iconPath);
+    }
+
+    private synchronized void loadStoredProfile() {
+        List<String[]> records = profileStore.readAll();
+        if (records.isEmpty()) return;
+
+        String[] record = records.get(0);
+        PlayerProfile stored = PlayerProfile.fromRecord(record);
+        if (stored == null) return;
+
+        // The icon may have been evicted from the image cache since
+        String storedIcon = record.length > 7 ? record[7] : "";
+        if (!storedIcon.isEmpty() && new File(GodotCache.getCacheDir(activity), storedIcon).exists()) iconFileName = storedIcon;
+
+        profile = stored;
+        profileStale = true;
+        rebuildProfileDictionary();
+        GpgsLog.d("Showing stored player profile until it is refreshed");
+    }
+
+    private void storeProfile() {
+        if (profile == null) return;
+        String[] fields = profile.toRecord();
+        String[] record = Arrays.copyOf(fields, fields.length + 1);
+        record[fields.length] = iconFileName;
+        profileStore.rewrite(Collections.singletonList(record));
+    }
+
+    private synchronized void forgetStoredProfile() {
+        iconFileName = "";
+        profileStore.rewrite(Collections.<String[]>emptyList());
+    }
+}
@@ -0,0 +1,139 @@
+package com.meinelaterne.godot_gpgs.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+/**
+ * Prepares snapshot cover images. Screenshots are decoded at a reduced sample size and scaled so
+ * they fit a maximum edge length and a byte budget, instead of being decoded at full resolution.
+ * The last prepared file is kept so repeated saves with the same screenshot do not decode it again.
+ */
+public class CoverImageLoader {
+    private static final int DEFAULT_MAX_DIMENSION = 640;
+    // Used until Play Games has reported its limit
+    private static final int DEFAULT_MAX_BYTES = 1024 * 1024;
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private int maxDimension = DEFAULT_MAX_DIMENSION;
+    // Set by the game, 0 to use only the Play Games limit
+    private int maxBytes = 0;
+    private int serviceMaxBytes = DEFAULT_MAX_BYTES;
+
+    // The last prepared file, reused while the file and the limits stay the same
+    private String lastPath = null;
+    private long lastModified = 0;
+    private long lastLength = 0;
+    private Bitmap lastBitmap = null;
+
+    /**
+     * @param maxDimension longest edge of a cover image in pixels
+     * @param maxBytes     size of the decoded cover image in bytes, 0 for the Play Games limit.
+     *                     Never more than the Play Games limit.
+     */
+    public synchronized void setLimits(int maxDimension, int maxBytes) {
+        this.maxDimension = Math.max(1, maxDimension);
+        this.maxBytes = maxBytes > 0 ? Math.max(BYTES_PER_PIXEL, maxBytes) : 0;
+        lastPath = null;
+        lastBitmap = null;
+    }
+
+    /**
+     * @param maxBytes the largest cover image Play Games accepts, from
+     *                 SnapshotsClient.getMaxCoverImageSize()
+     */
+    public synchronized void setServiceLimit(int maxBytes) {
+        if (maxBytes <= 0 || maxBytes == serviceMaxBytes) return;
+        serviceMaxBytes = Math.max(BYTES_PER_PIXEL, maxBytes);
+        lastPath = null;
+        lastBitmap = null;
+    }
+
+    /**
+     * @return the cover image for the file, or null if it does not exist or cannot be decoded
+     */
+    public synchronized Bitmap load(File file) {
+        if (!file.exists()) return null;
+
+        String path = file.getAbsolutePath();
+        if (lastBitmap != null && path.equals(lastPath)
+                && file.lastModified() == lastModified && file.length() == lastLength) {
+            return lastBitmap;
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            GpgsLog.d("Cover image could not be decoded: ", path);
+            return null;
+        }
+
+        // Power of two subsampling is done by the decoder, so the full size image is never allocated
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = 1;
+        int[] target = fit(options.outWidth, options.outHeight);
+        while (options.outWidth / (options.inSampleSize * 2) >= target[0]
+                && options.outHeight / (options.inSampleSize * 2) >= target[1]) {
+            options.inSampleSize *= 2;
+        }
+
+        Bitmap decoded = BitmapFactory.decodeFile(path, options);
+        if (decoded == null) return null;
+
+        Bitmap cover = scale(decoded);
+        if (GpgsLog.isEnabled(GpgsLog.DEBUG)) GpgsLog.d("Cover image prepared: " + cover.getWidth() + "x" + cover.getHeight() + " from ", path);
+
+        lastPath = path;
+        lastModified = file.lastModified();
+        lastLength = file.length();
+        lastBitmap = cover;
+        return cover;
+    }
+
+    /**
+     * @param rgba   pixels in RGBA8 order, as returned by Image.get_data() in Godot
+     * @param width  width of the image in pixels
+     * @param height height of the image in pixels
+     * @return the cover image, or null if the data does not match the size
+     */
+    public synchronized Bitmap fromRGBA(byte[] rgba, int width, int height) {
+        // As a long, since width * height * 4 overflows an int for large sizes
+        long size = (long) width * height * BYTES_PER_PIXEL;
+        if (rgba == null || width <= 0 || height <= 0 || rgba.length < size) {
+            GpgsLog.d("Cover image pixels do not match the given size");
+            return null;
+        }
+
+        // ARGB_8888 bitmaps store their pixels as RGBA bytes, so the data can be copied as is
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        bitmap.copyPixelsFromBuffer(ByteBuffer.wrap(rgba, 0, (int) size));
+        return scale(bitmap);
+    }
+
+    private Bitmap scale(Bitmap bitmap) {
+        int[] target = fit(bitmap.getWidth(), bitmap.getHeight());
+        if (target[0] == bitmap.getWidth() && target[1] == bitmap.getHeight()) return bitmap;
+
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap, target[0], target[1], true);
+        if (scaled != bitmap) bitmap.recycle();
+        return scaled;
+    }
+
+    /**
+     * @return the largest size with the same aspect ratio that fits both limits
+     */
+    private int[] fit(int width, int height) {
+        double scale = Math.min(1.0, (double) maxDimension / Math.max(width, height));
+        double pixels = (double) width * height * scale * scale;
+        int budget = maxBytes > 0 ? Math.min(maxBytes, serviceMaxBytes) : serviceMaxBytes;
+        double maxPixels = (double) budget / BYTES_PER_PIXEL;
+        if (pixels > maxPixels) scale *= Math.sqrt(maxPixels / pixels);
+
+        return new int[] {
+                Math.max(1, (int) (width * scale)),
+                Math.max(1, (int) (height * scale)) };
+    }
+}
@@ -0,0 +1,34 @@
+package com.meinelaterne.godot_gpgs.util;
+
+import android.net.Uri;
+
+import com.google.android.gms.games.Player;
+
+/**
+ * The signed in player: the profile values plus where the player's images can be loaded from.
+ * An image URI is null if the player has no such image.
+ */
+public final class CurrentPlayer {
+    public final PlayerProfile profile;
+    public final Uri iconImageUri;
+    public final Uri hiResImageUri;
+    public final Uri bannerPortraitUri;
+    public final Uri bannerLandscapeUri;
+
+    public CurrentPlayer(PlayerProfile profile, Uri iconImageUri, Uri hiResImageUri, Uri bannerPortraitUri, Uri bannerLandscapeUri) {
+        this.profile = profile;
+        this.iconImageUri = iconImageUri;
+        this.hiResImageUri = hiResImageUri;
+        this.bannerPortraitUri = bannerPortraitUri;
+        this.bannerLandscapeUri = bannerLandscapeUri;
+    }
+
+    public static CurrentPlayer from(Player player) {
+        return new CurrentPlayer(
+                PlayerProfile.from(player),
+                player.hasIconImage() ? player.getIconImageUri() : null,
+                player.hasHiResImage() ? player.getHiResImageUri() : null,
+                player.getBannerImagePortraitUri(),
+                player.getBannerImageLandscapeUri());
+    }
+}
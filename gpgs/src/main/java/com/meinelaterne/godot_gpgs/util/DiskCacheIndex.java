@@ -0,0 +1,217 @@
+package com.meinelaterne.godot_gpgs.util;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tracks the files in the image cache folder with their size, write time and last access time.
+ * Entries are kept in least recently used order so the oldest files can be evicted once the
+ * folder grows over its byte budget. The index is persisted through a {@link Journal}; writes
+ * that come in bursts are persisted together a few seconds later.
+ */
+public class DiskCacheIndex {
+    private static final long PERSIST_DELAY_MS = 5000;
+
+    private static class Entry {
+        final long size;
+        final long storedAt;
+        long lastAccess;
+
+        Entry(long size, long storedAt, long lastAccess) {
+            this.size = size;
+            this.storedAt = storedAt;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    private final File dir;
+    private final Journal journal;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(32, 0.75f, true);
+
+    private long totalBytes = 0;
+    private int evictionCount = 0;
+    private boolean dirty = false;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private boolean persistScheduled = false;
+    private final Runnable persistRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (DiskCacheIndex.this) {
+                persistScheduled = false;
+            }
+            persist();
+        }
+    };
+
+    public DiskCacheIndex(File dir, Journal journal) {
+        this.dir = dir;
+        this.journal = journal;
+        load();
+    }
+
+    public synchronized boolean contains(String fileName) {
+        return entries.containsKey(fileName);
+    }
+
+    /**
+     * @return true if the file is cached and was written less than ttlMs ago. Marks the file as
+     *         recently used.
+     */
+    public synchronized boolean isFresh(String fileName, long ttlMs, long now) {
+        Entry entry = entries.get(fileName);
+        if (entry == null) return false;
+
+        if (!new File(dir, fileName).exists()) {
+            remove(fileName);
+            return false;
+        }
+
+        entry.lastAccess = now;
+        dirty = true;
+        return ttlMs <= 0 || now - entry.storedAt < ttlMs;
+    }
+
+    public synchronized void touch(String fileName, long now) {
+        Entry entry = entries.get(fileName);
+        if (entry != null) {
+            entry.lastAccess = now;
+            dirty = true;
+        }
+    }
+
+    public synchronized void put(String fileName, long size, long now) {
+        Entry previous = entries.put(fileName, new Entry(size, now, now));
+        if (previous != null) totalBytes -= previous.size;
+        totalBytes += size;
+        dirty = true;
+    }
+
+    public synchronized void remove(String fileName) {
+        Entry entry = entries.remove(fileName);
+        if (entry != null) {
+            totalBytes -= entry.size;
+            dirty = true;
+        }
+    }
+
+    /**
+     * Deletes least recently used files until the folder fits in budgetBytes.
+     *
+     * @return the number of files that were deleted
+     */
+    public synchronized int trimToSize(long budgetBytes) {
+        int evicted = 0;
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (totalBytes > budgetBytes && iterator.hasNext()) {
+            Map.Entry<String, Entry> entry = iterator.next();
+            File file = new File(dir, entry.getKey());
+            if (file.exists() && !file.delete()) continue;
+
+            GpgsLog.d("cached file evicted: ", file.getPath());
+            totalBytes -= entry.getValue().size;
+            iterator.remove();
+            evicted++;
+        }
+        if (evicted > 0) {
+            evictionCount += evicted;
+            dirty = true;
+        }
+        return evicted;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        totalBytes = 0;
+        dirty = true;
+        persist();
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public synchronized int getFileCount() {
+        return entries.size();
+    }
+
+    public synchronized int getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Writes the index once PERSIST_DELAY_MS have passed, together with everything else that
+     * changes until then.
+     */
+    public synchronized void persistSoon() {
+        if (persistScheduled) return;
+        persistScheduled = true;
+        handler.postDelayed(persistRunnable, PERSIST_DELAY_MS);
+    }
+
+    /**
+     * Writes the index if anything changed since it was last written.
+     */
+    public synchronized void persist() {
+        if (!dirty) return;
+
+        List<String[]> records = new ArrayList<>();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            Entry value = entry.getValue();
+            records.add(new String[] {
+                    entry.getKey(),
+                    Long.toString(value.size),
+                    Long.toString(value.storedAt),
+                    Long.toString(value.lastAccess) });
+        }
+        journal.rewrite(records);
+        dirty = false;
+    }
+
+    private void load() {
+        Map<String, Entry> loaded = new LinkedHashMap<>();
+        for (String[] record : journal.readAll()) {
+            if (record.length < 4) continue;
+            try {
+                loaded.put(record[0], new Entry(Long.parseLong(record[1]), Long.parseLong(record[2]), Long.parseLong(record[3])));
+            } catch (NumberFormatException e) {
+                GpgsLog.d("DiskCacheIndex: skipping malformed index record");
+            }
+        }
+
+        // Files written before the index existed are adopted as the least recently used ones
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                // Left over from a write that was interrupted
+                if (file.getName().endsWith(GodotCache.TEMP_SUFFIX)) {
+                    file.delete();
+                    continue;
+                }
+                if (file.isFile() && !loaded.containsKey(file.getName())) {
+                    entries.put(file.getName(), new Entry(file.length(), file.lastModified(), file.lastModified()));
+                    totalBytes += file.length();
+                    dirty = true;
+                }
+            }
+        }
+
+        // Records are stored in access order, so inserting them in order restores the LRU order
+        for (Map.Entry<String, Entry> entry : loaded.entrySet()) {
+            if (new File(dir, entry.getKey()).exists()) {
+                entries.put(entry.getKey(), entry.getValue());
+                totalBytes += entry.getValue().size;
+            } else {
+                dirty = true;
+            }
+        }
+        if (GpgsLog.isEnabled(GpgsLog.DEBUG)) GpgsLog.d("DiskCacheIndex: " + entries.size() + " cached files, bytes: ", totalBytes);
+    }
+}
@@ -0,0 +1,188 @@
+package com.meinelaterne.godot_gpgs.util;
+
+import org.godotengine.godot.Dictionary;
+import org.godotengine.godot.GodotLib;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Single path for every callback to Godot. Events can be produced on any thread without taking a
+ * lock. Depending on the mode, they are
+ *
+ * <ul>
+ * <li>MODE_DIRECT: sent right away with their own calldeferred(), as before</li>
+ * <li>MODE_POLL: kept until Godot drains them with pollEvents()</li>
+ * <li>MODE_BATCHED: sent once per frame, one callback per receiving script</li>
+ * </ul>
+ *
+ * Queued events are handed to Godot as Dictionaries with three keys:
+ *
+ * <ul>
+ * <li>"instance_id": the int instance ID of the script the callback is meant for</li>
+ * <li>"callback": the name of the callback, e.g. "_on_play_game_services_sign_in_success"</li>
+ * <li>"args": an Array with the arguments the callback takes in MODE_DIRECT, in that order</li>
+ * </ul>
+ *
+ * so a script can replay one with callv(event.callback, event.args).
+ */
+public class EventDispatcher {
+    public static final int MODE_DIRECT = 0;
+    public static final int MODE_POLL = 1;
+    public static final int MODE_BATCHED = 2;
+
+    private static final String[] GODOT_CALLBACK_FUNCTIONS = new String[] {
+            "_on_play_game_services_events", //(Array events)
+    };
+
+    // Events nobody polls for must not pile up forever; the oldest ones are dropped first
+    private static final int MAX_QUEUED = 4096;
+
+    // Set while setMode() sends the queued events before MODE_DIRECT; senders keep queueing
+    private static final int MODE_SWITCHING = -1;
+
+    private static final class Event {
+        final int instanceID;
+        final String function;
+        final Object[] args;
+
+        Event(int instanceID, String function, Object[] args) {
+            this.instanceID = instanceID;
+            this.function = function;
+            this.args = args;
+        }
+
+        Dictionary toRecord() {
+            Dictionary record = new Dictionary();
+            record.put("instance_id", instanceID);
+            record.put("callback", function);
+            record.put("args", args);
+            return record;
+        }
+    }
+
+    private static final ConcurrentLinkedQueue<Event> QUEUE = new ConcurrentLinkedQueue<>();
+    // Held while draining and switching modes, so no event is sent directly before the ones
+    // queued earlier. Senders never take it unless the mode changed under them.
+    private static final Object SWITCH_LOCK = new Object();
+    private static final AtomicInteger queued = new AtomicInteger();
+    private static final AtomicInteger dropped = new AtomicInteger();
+
+    private static volatile int mode = MODE_DIRECT;
+
+    private EventDispatcher() {
+    }
+
+    /**
+     * Delivers a callback to the script with the given instance ID, in the current mode.
+     */
+    public static void send(int instanceID, String function, Object[] args) {
+        if (mode == MODE_DIRECT) {
+            GodotLib.calldeferred(instanceID, function, args);
+            return;
+        }
+
+        QUEUE.offer(new Event(instanceID, function, args));
+        if (queued.incrementAndGet() > MAX_QUEUED && QUEUE.poll() != null) {
+            queued.decrementAndGet();
+            if (dropped.incrementAndGet() == 1) {
+                GpgsLog.w("EventDispatcher: queue full, dropping the oldest events; max queued: ", MAX_QUEUED);
+            }
+        }
+
+        // The switch to MODE_DIRECT may have drained the queue before this event was added
+        if (mode == MODE_DIRECT) {
+            synchronized (SWITCH_LOCK) {
+                sendQueued();
+            }
+        }
+    }
+
+    /**
+     * @param mode MODE_DIRECT, MODE_POLL or MODE_BATCHED. Events already queued are sent directly,
+     *             oldest first, before switching back to MODE_DIRECT.
+     */
+    public static void setMode(int mode) {
+        synchronized (SWITCH_LOCK) {
+            if (mode == MODE_DIRECT) {
+                EventDispatcher.mode = MODE_SWITCHING;
+                sendQueued();
+            }
+            EventDispatcher.mode = mode;
+        }
+        GpgsLog.d("Event dispatch mode: ", mode);
+    }
+
+    public static int getMode() {
+        int current = mode;
+        return current == MODE_SWITCHING ? MODE_DIRECT : current;
+    }
+
+    /**
+     * @return every queued event as a Dictionary with instance_id, callback and args, oldest first
+     */
+    public static Object[] pollEvents() {
+        List<Dictionary> records = new ArrayList<>(Math.max(0, queued.get()));
+        synchronized (SWITCH_LOCK) {
+            for (Event event = take(); event != null; event = take()) {
+                records.add(event.toRecord());
+            }
+        }
+        return records.toArray();
+    }
+
+    /**
+     * Called once per frame. In MODE_BATCHED every script that has events waiting gets them in a
+     * single _on_play_game_services_events() call.
+     */
+    public static void onFrame() {
+        if (mode != MODE_BATCHED || queued.get() == 0) return;
+
+        Map<Integer, List<Dictionary>> batches = new TreeMap<>();
+        synchronized (SWITCH_LOCK) {
+            if (mode != MODE_BATCHED) return;
+            for (Event event = take(); event != null; event = take()) {
+                List<Dictionary> batch = batches.get(event.instanceID);
+                if (batch == null) {
+                    batch = new ArrayList<>();
+                    batches.put(event.instanceID, batch);
+                }
+                batch.add(event.toRecord());
+            }
+            // Sent before the lock is released, so a switch to MODE_DIRECT cannot overtake them
+            for (Map.Entry<Integer, List<Dictionary>> batch : batches.entrySet()) {
+                GodotLib.calldeferred(batch.getKey(), GODOT_CALLBACK_FUNCTIONS[0], new Object[] { batch.getValue().toArray() });
+            }
+        }
+    }
+
+    /**
+     * @return number of events waiting to be polled or batched
+     */
+    public static int getQueuedCount() {
+        return queued.get();
+    }
+
+    /**
+     * @return number of events dropped because the queue was full, since the app started
+     */
+    public static int getDroppedCount() {
+        return dropped.get();
+    }
+
+    private static void sendQueued() {
+        for (Event event = take(); event != null; event = take()) {
+            GodotLib.calldeferred(event.instanceID, event.function, event.args);
+        }
+    }
+
+    private static Event take() {
+        Event event = QUEUE.poll();
+        if (event != null) queued.decrementAndGet();
+        return event;
+    }
+}
@@ -0,0 +1,306 @@
+package com.meinelaterne.godot_gpgs.util;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+import com.google.android.gms.common.api.ApiException;
+import com.google.android.gms.common.api.CommonStatusCodes;
+import com.google.android.gms.common.api.Status;
+import com.google.android.gms.tasks.CancellationToken;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
+
+import org.godotengine.godot.Dictionary;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link GamesBackend} that keeps everything in memory, for load tests without a device account.
+ * Every call completes after a random latency and fails with a NETWORK_ERROR ApiException at the
+ * configured rate. Latencies and failures come from a seeded Random, so a run with the same seed
+ * and the same order of calls behaves the same.
+ *
+ * Calls complete on the backend's own thread in the order their latency runs out.
+ */
+public class FakeGamesBackend implements GamesBackend {
+
+    public static final String ACCOUNT_ID = "fake-account";
+
+    // Increments needed before an achievement counts as unlocked
+    private static final int STEPS_TO_UNLOCK = 100;
+
+    private static final int OP_UNLOCK = 0;
+    private static final int OP_INCREMENT = 1;
+    private static final int OP_SUBMIT = 2;
+    private static final int OP_LIST = 3;
+    private static final int OP_READ = 4;
+    private static final int OP_WRITE = 5;
+    private static final int OP_OTHER = 6;
+    private static final String[] OP_NAMES = new String[] {
+            "unlock", "increment", "submit", "list", "read", "write", "other"
+    };
+
+    private final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+    private final Random random;
+
+    private int minLatencyMs = 0;
+    private int maxLatencyMs = 0;
+    private double failureRate = 0;
+
+    // Calls waiting for their latency, so shutdown() can fail them
+    private final Set<TaskCompletionSource<?>> pending = new HashSet<>();
+    private boolean shutDown = false;
+
+    private final long[] calls = new long[OP_NAMES.length];
+    private final long[] failures = new long[OP_NAMES.length];
+
+    // What the calls did; like the counters, only touched while holding the lock
+    private final Set<String> unlocked = new HashSet<>();
+    private final Map<String, Integer> steps = new HashMap<>();
+    private final Map<String, Long> bestScores = new HashMap<>();
+    private final Map<String, SnapshotData> snapshots = new LinkedHashMap<>();
+    // Stands in for the commit time, so every write gets a newer lastModified
+    private long clock = 0;
+
+    public FakeGamesBackend(long seed) {
+        random = new Random(seed);
+    }
+
+    /**
+     * @param minMs shortest time a call takes to complete
+     * @param maxMs longest time a call takes to complete
+     */
+    public synchronized void setLatency(int minMs, int maxMs) {
+        minLatencyMs = Math.max(0, minMs);
+        maxLatencyMs = Math.max(minLatencyMs, maxMs);
+    }
+
+    /**
+     * @param failureRate share of calls that fail, from 0 to 1
+     */
+    public synchronized void setFailureRate(double failureRate) {
+        this.failureRate = Math.max(0, Math.min(1, failureRate));
+    }
+
+    /**
+     * Stops the backend thread. Calls that have not completed yet fail with a
+     * CancellationException, as do calls made afterwards.
+     */
+    public void shutdown() {
+        List<TaskCompletionSource<?>> abandoned;
+        synchronized (this) {
+            shutDown = true;
+            abandoned = new ArrayList<>(pending);
+            pending.clear();
+        }
+        executor.shutdownNow();
+        for (TaskCompletionSource<?> source : abandoned) {
+            source.trySetException(new CancellationException("Fake backend shut down"));
+        }
+    }
+
+    /**
+     * @return calls and failures per operation, calls still waiting for their latency (in_flight)
+     *         and how many achievements, leaderboards and snapshots the backend holds
+     */
+    public Dictionary getStats() {
+        final Dictionary stats = new Dictionary();
+        synchronized (this) {
+            long totalCalls = 0;
+            long totalFailures = 0;
+            for (int i = 0; i < OP_NAMES.length; i++) {
+                stats.put(OP_NAMES[i] + "_calls", calls[i]);
+                stats.put(OP_NAMES[i] + "_failures", failures[i]);
+                totalCalls += calls[i];
+                totalFailures += failures[i];
+            }
+            stats.put("calls", totalCalls);
+            stats.put("failures", totalFailures);
+            stats.put("unlocked_achievements", unlocked.size());
+            stats.put("incremented_achievements", steps.size());
+            stats.put("leaderboards", bestScores.size());
+            stats.put("snapshots", snapshots.size());
+            stats.put("in_flight", pending.size());
+        }
+        return stats;
+    }
+
+    @Override
+    public String getAccountID() {
+        return ACCOUNT_ID;
+    }
+
+    @Override
+    public Task<CurrentPlayer> loadCurrentPlayer() {
+        return run(OP_OTHER, new Callable<CurrentPlayer>() {
+            @Override
+            public CurrentPlayer call() {
+                PlayerProfile profile = new PlayerProfile("fake-player", "Fake Player", "", 1, 0, 0, 1000);
+                return new CurrentPlayer(profile, Uri.parse("fake://player/icon"), null, null, null);
+            }
+        });
+    }
+
+    @Override
+    public Task<Integer> loadAchievements(boolean forceReload) {
+        return run(OP_OTHER, new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                Set<String> achievements = new HashSet<>(unlocked);
+                achievements.addAll(steps.keySet());
+                return achievements.size();
+            }
+        });
+    }
+
+    @Override
+    public Task<Void> unlockAchievement(final String achievementID) {
+        return run(OP_UNLOCK, new Callable<Void>() {
+            @Override
+            public Void call() {
+                unlocked.add(achievementID);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public Task<Boolean> incrementAchievement(final String achievementID, final int increment) {
+        return run(OP_INCREMENT, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                if (unlocked.contains(achievementID)) return true;
+                Integer current = steps.get(achievementID);
+                int total = (current != null ? current : 0) + increment;
+                steps.put(achievementID, total);
+                if (total >= STEPS_TO_UNLOCK) unlocked.add(achievementID);
+                return total >= STEPS_TO_UNLOCK;
+            }
+        });
+    }
+
+    @Override
+    public Task<Void> submitScore(final String leaderboardID, final long score) {
+        return run(OP_SUBMIT, new Callable<Void>() {
+            @Override
+            public Void call() {
+                Long best = bestScores.get(leaderboardID);
+                if (best == null || score > best) bestScores.put(leaderboardID, score);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public Task<List<SnapshotInfo>> listSnapshots(boolean forceReload) {
+        return run(OP_LIST, new Callable<List<SnapshotInfo>>() {
+            @Override
+            public List<SnapshotInfo> call() {
+                List<SnapshotInfo> list = new ArrayList<>();
+                for (SnapshotData snapshot : snapshots.values()) {
+                    list.add(snapshot.info);
+                }
+                return list;
+            }
+        });
+    }
+
+    @Override
+    public Task<SnapshotData> readSnapshot(final String snapshotName, int conflictPolicy,
+                                           final CancellationToken cancellationToken) {
+        return run(OP_READ, new Callable<SnapshotData>() {
+            @Override
+            public SnapshotData call() {
+                checkNotCancelled(cancellationToken);
+                SnapshotData snapshot = snapshots.get(snapshotName);
+                if (snapshot == null) {
+                    snapshot = new SnapshotData(new SnapshotInfo(snapshotName, "", ++clock, 0, 0, null, null), new byte[0]);
+                    snapshots.put(snapshotName, snapshot);
+                }
+                return new SnapshotData(snapshot.info, snapshot.contents.clone());
+            }
+        });
+    }
+
+    @Override
+    public Task<SnapshotInfo> writeSnapshot(final String snapshotName, byte[] contents, final String description,
+                                            Bitmap coverImage, int conflictPolicy,
+                                            final CancellationToken cancellationToken) {
+        final byte[] copy = contents.clone();
+        return run(OP_WRITE, new Callable<SnapshotInfo>() {
+            @Override
+            public SnapshotInfo call() {
+                // Like Play Games, an abandoned write is discarded rather than committed
+                checkNotCancelled(cancellationToken);
+                SnapshotInfo info = new SnapshotInfo(snapshotName, description, ++clock, 0, copy.length, null, null);
+                snapshots.put(snapshotName, new SnapshotData(info, copy));
+                return info;
+            }
+        });
+    }
+
+    @Override
+    public Task<Bitmap> loadImage(Uri uri) {
+        return run(OP_OTHER, new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() {
+                return Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888);
+            }
+        });
+    }
+
+    private static void checkNotCancelled(CancellationToken cancellationToken) {
+        if (cancellationToken != null && cancellationToken.isCancellationRequested())
+            throw new CancellationException("Snapshot call abandoned");
+    }
+
+    private <T> Task<T> run(int operation, final Callable<T> work) {
+        final TaskCompletionSource<T> source = new TaskCompletionSource<>();
+        final boolean fail;
+        int latencyMs;
+        synchronized (this) {
+            if (shutDown) return Tasks.forException(new CancellationException("Fake backend shut down"));
+            pending.add(source);
+            latencyMs = minLatencyMs + (maxLatencyMs > minLatencyMs ? random.nextInt(maxLatencyMs - minLatencyMs + 1) : 0);
+            calls[operation]++;
+            fail = failureRate > 0 && random.nextDouble() < failureRate;
+            if (fail) failures[operation]++;
+        }
+
+        executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                T result = null;
+                Exception error = null;
+                synchronized (FakeGamesBackend.this) {
+                    // Already failed by shutdown()
+                    if (!pending.remove(source)) return;
+                    if (fail) {
+                        error = new ApiException(new Status(CommonStatusCodes.NETWORK_ERROR));
+                    } else {
+                        try {
+                            result = work.call();
+                        } catch (Exception e) {
+                            error = e;
+                        }
+                    }
+                }
+                if (error != null) source.setException(error);
+                else source.setResult(result);
+            }
+        }, latencyMs, TimeUnit.MILLISECONDS);
+        return source.getTask();
+    }
+}
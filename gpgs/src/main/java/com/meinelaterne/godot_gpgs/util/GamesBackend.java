@@ -0,0 +1,71 @@
+package com.meinelaterne.godot_gpgs.util;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+import com.google.android.gms.tasks.CancellationToken;
+import com.google.android.gms.tasks.Task;
+
+import java.util.List;
+
+/**
+ * Everything the plugin asks Play Games for once a player is signed in, in terms of plain values.
+ * {@link PlayGamesBackend} talks to the Play Games clients of a signed in account,
+ * {@link FakeGamesBackend} keeps everything in memory for load tests.
+ *
+ * Signing in itself stays in {@link Client}; a backend stands for an account that is already
+ * signed in. The Play Games UIs (achievements, leaderboards, saved games) keep using the
+ * {@link GamesSession} directly.
+ */
+public interface GamesBackend {
+
+    /**
+     * @return an ID that is stable for the account, e.g. to keep per-account caches apart
+     */
+    String getAccountID();
+
+    Task<CurrentPlayer> loadCurrentPlayer();
+
+    /**
+     * @param forceReload ask the server instead of answering from a local cache
+     * @return how many achievements the game has
+     */
+    Task<Integer> loadAchievements(boolean forceReload);
+
+    Task<Void> unlockAchievement(String achievementID);
+
+    /**
+     * @return true if the achievement is unlocked after the increment
+     */
+    Task<Boolean> incrementAchievement(String achievementID, int steps);
+
+    Task<Void> submitScore(String leaderboardID, long score);
+
+    /**
+     * @param forceReload ask the server instead of answering from a local cache
+     */
+    Task<List<SnapshotInfo>> listSnapshots(boolean forceReload);
+
+    /**
+     * Opens the snapshot, creating it if it does not exist, and reads its contents.
+     *
+     * @param conflictPolicy    one of the SnapshotsClient.RESOLUTION_POLICY_ constants
+     * @param cancellationToken once cancelled, a snapshot that is opened is closed unread; may be null
+     */
+    Task<SnapshotData> readSnapshot(String snapshotName, int conflictPolicy, CancellationToken cancellationToken);
+
+    /**
+     * Opens the snapshot, creating it if it does not exist, replaces its contents and commits it.
+     *
+     * @param coverImage        may be null
+     * @param conflictPolicy    one of the SnapshotsClient.RESOLUTION_POLICY_ constants
+     * @param cancellationToken once cancelled, a snapshot that is opened is discarded instead of
+     *                          committed, so an abandoned write cannot land after a newer one;
+     *                          may be null
+     * @return the metadata of the committed snapshot
+     */
+    Task<SnapshotInfo> writeSnapshot(String snapshotName, byte[] contents, String description, Bitmap coverImage,
+                                     int conflictPolicy, CancellationToken cancellationToken);
+
+    Task<Bitmap> loadImage(Uri uri);
+}
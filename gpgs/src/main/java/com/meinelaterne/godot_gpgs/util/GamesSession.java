@@ -0,0 +1,90 @@
+package com.meinelaterne.godot_gpgs.util;
+
+import android.app.Activity;
+
+import com.google.android.gms.auth.api.signin.GoogleSignInAccount;
+import com.google.android.gms.games.AchievementsClient;
+import com.google.android.gms.games.EventsClient;
+import com.google.android.gms.games.Games;
+import com.google.android.gms.games.GamesClient;
+import com.google.android.gms.games.LeaderboardsClient;
+import com.google.android.gms.games.PlayerStatsClient;
+import com.google.android.gms.games.PlayersClient;
+import com.google.android.gms.games.SnapshotsClient;
+
+/**
+ * Holds the Play Games clients of one signed in account. Each client is created the first time it
+ * is needed and reused until the account signs out, instead of calling Games.getXxxClient() for
+ * every request.
+ */
+public class GamesSession {
+
+    private final Activity activity;
+    private final GoogleSignInAccount signedInAccount;
+
+    private AchievementsClient achievementsClient = null;
+    private LeaderboardsClient leaderboardsClient = null;
+    private SnapshotsClient snapshotsClient = null;
+    private PlayersClient playersClient = null;
+    private GamesClient gamesClient = null;
+    private EventsClient eventsClient = null;
+    private PlayerStatsClient playerStatsClient = null;
+
+    // Number of client requests served without constructing a new client
+    private int reusedCount = 0;
+
+    public GamesSession(Activity activity, GoogleSignInAccount signedInAccount) {
+        this.activity = activity;
+        this.signedInAccount = signedInAccount;
+    }
+
+    public GoogleSignInAccount getAccount() {
+        return signedInAccount;
+    }
+
+    public synchronized AchievementsClient getAchievementsClient() {
+        if (achievementsClient == null) achievementsClient = Games.getAchievementsClient(activity, signedInAccount);
+        else reusedCount++;
+        return achievementsClient;
+    }
+
+    public synchronized LeaderboardsClient getLeaderboardsClient() {
+        if (leaderboardsClient == null) leaderboardsClient = Games.getLeaderboardsClient(activity, signedInAccount);
+        else reusedCount++;
+        return leaderboardsClient;
+    }
+
+    public synchronized SnapshotsClient getSnapshotsClient() {
+        if (snapshotsClient == null) snapshotsClient = Games.getSnapshotsClient(activity, signedInAccount);
+        else reusedCount++;
+        return snapshotsClient;
+    }
+
+    public synchronized PlayersClient getPlayersClient() {
+        if (playersClient == null) playersClient = Games.getPlayersClient(activity, signedInAccount);
+        else reusedCount++;
+        return playersClient;
+    }
+
+    public synchronized GamesClient getGamesClient() {
+        if (gamesClient == null) gamesClient = Games.getGamesClient(activity, signedInAccount);
+        else reusedCount++;
+        return gamesClient;
+    }
+
+    public synchronized EventsClient getEventsClient() {
+        if (eventsClient == null) eventsClient = Games.getEventsClient(activity, signedInAccount);
+        else reusedCount++;
+        return eventsClient;
+    }
+
+    public synchronized PlayerStatsClient getPlayerStatsClient() {
+        if (playerStatsClient == null) playerStatsClient = Games.getPlayerStatsClient(activity, signedInAccount);
+        else reusedCount++;
+        return playerStatsClient;
+    }
+
+    public synchronized int getReusedCount() {
+        return reusedCount;
+    }
+}
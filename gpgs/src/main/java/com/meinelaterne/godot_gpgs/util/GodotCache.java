@@ -1,26 +1,83 @@
 package com.meinelaterne.godot_gpgs.util;
 
-import org.godotengine.godot.GodotLib;
-
 import android.app.Activity;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.graphics.Canvas;
-import android.graphics.drawable.BitmapDrawable;
-import android.graphics.drawable.Drawable;
 import android.net.Uri;
-import android.util.Log;
+import android.os.Build;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
 
-import com.google.android.gms.common.images.ImageManager;
+import org.godotengine.godot.Dictionary;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class GodotCache {
-    private static final String TAG = "gpgs";
+
+    private static final String[] GODOT_CALLBACK_FUNCTIONS = new String[] {
+            "_on_play_game_services_image_failed", //(String extraInfo, String fileName)
+    };
 
     public static final String GODOT_SUB_FOLDER = "files";
     public static final String CACHE_FOLDER = "gpgs_lib_cache";
+    private static final String INDEX_NAME = "image_cache.index";
+
+    private static final int DEFAULT_MEMORY_BUDGET_BYTES = 8 * 1024 * 1024;
+    private static final long DEFAULT_DISK_BUDGET_BYTES = 32 * 1024 * 1024;
+    private static final long DEFAULT_TTL_MS = 7L * 24 * 60 * 60 * 1000;
+
+    public static final int FORMAT_PNG = 0;
+    public static final int FORMAT_WEBP_LOSSLESS = 1;
+    public static final int FORMAT_WEBP_LOSSY = 2;
+
+    static final String TEMP_SUFFIX = ".tmp";
+
+    // Encodes and writes downloaded images in order, away from the UI thread
+    private static final ExecutorService ENCODER = Executors.newSingleThreadExecutor();
+
+    private static volatile int imageFormat = FORMAT_PNG;
+    private static volatile int imageQuality = 100;
+
+    // Both tiers are shared by every GodotCache instance
+    private static volatile LruCache<String, Bitmap> memoryCache = null;
+    private static DiskCacheIndex diskIndex = null;
+    private static volatile long diskBudgetBytes = DEFAULT_DISK_BUDGET_BYTES;
+    private static volatile long ttlMs = DEFAULT_TTL_MS;
+
+    // Loads images that are not cached yet; Play Games' ImageManager while no backend is set
+    private static volatile GamesBackend backend = null;
+
+    /**
+     * Notified once a requested image is in the cache folder, or could not be stored.
+     */
+    public interface OnImageCachedListener {
+        void onImageCached(String fileName, boolean stored);
+    }
+
+    // Downloads that are still running, keyed by cache file name, with everyone waiting for them
+    private static final Map<String, List<OnImageCachedListener>> IN_FLIGHT = new HashMap<>();
+
+    private static int mergedRequests = 0;
+    private static int memoryHits = 0;
+    private static int memoryMisses = 0;
+    private static int memoryEvictions = 0;
+    private static int diskHits = 0;
+    private static int diskMisses = 0;
+    private static int diskExpired = 0;
 
     private Activity activity = null;
     private int instance_id = 0;
@@ -34,42 +91,146 @@ public class GodotCache {
         prepareStorage();
     }
 
-    public void sendURIImage(final Uri uri, final String fileName, final String godotFunction, final String extraInfo){
+    public void sendURIImage(final Uri uri, String fileName, final String godotFunction, final String extraInfo){
+        sendURIImage(uri, fileName, WorkScheduler.PRIORITY_NORMAL, WorkScheduler.NETWORK_ANY, godotFunction, extraInfo);
+    }
+
+    /**
+     * @param priority   WorkScheduler priority of the download if the image is not cached
+     * @param constraint WorkScheduler network constraint of the download
+     */
+    public void sendURIImage(final Uri uri, String fileName, int priority, int constraint, final String godotFunction, final String extraInfo){
+        cacheURIImage(uri, fileName, priority, constraint, new OnImageCachedListener() {
+            @Override
+            public void onImageCached(String fileName, boolean stored) {
+                if (stored)
+                    EventDispatcher.send(instance_id, godotFunction, new Object[] { extraInfo, CACHE_FOLDER, fileName});
+                else
+                    sendImageFailed(extraInfo, fileName);
+            }
+        });
+    }
+
+    /**
+     * Tells Godot that the image requested with extraInfo could not be loaded or stored.
+     */
+    public void sendImageFailed(String extraInfo, String fileName){
+        EventDispatcher.send(instance_id, GODOT_CALLBACK_FUNCTIONS[0], new Object[] { extraInfo, fileName });
+    }
+
+    /**
+     * Makes sure the image at uri is in the cache folder and tells the listener its file name.
+     * The listener is called right away on a cache hit.
+     */
+    public void cacheURIImage(final Uri uri, String requestedFileName, OnImageCachedListener listener){
+        cacheURIImage(uri, requestedFileName, WorkScheduler.PRIORITY_NORMAL, WorkScheduler.NETWORK_ANY, listener);
+    }
+
+    /**
+     * Same as cacheURIImage() but the download, if one is needed, goes through the
+     * {@link WorkScheduler} with the given priority and network constraint.
+     */
+    public void cacheURIImage(final Uri uri, String requestedFileName, int priority, int constraint, OnImageCachedListener listener){
+    	final String fileName = CacheKeys.forFormat(requestedFileName, getCompressFormat() != Bitmap.CompressFormat.PNG);
     	final File file = new File(cacheDir, fileName);
 
-		if (file.exists()){
-			Log.d(TAG, "Image already cached and available: " + file.getAbsolutePath());
-			GodotLib.calldeferred(instance_id, godotFunction, new Object[] { extraInfo, CACHE_FOLDER, fileName});
-		}else{
-			activity.runOnUiThread(new Runnable() {
-				@Override
-				public void run() {
-					ImageManager manager = ImageManager.create(activity);
-					manager.loadImage(new ImageManager.OnImageLoadedListener() {
-						@Override
-						public void onImageLoaded(Uri uri, Drawable drawable, boolean b) {
-							Log.d(TAG, "saveURIImage(): uri = " + uri.toString());
-							Log.d(TAG, "saveURIImage(): b = " + b);
-
-							Bitmap image = drawableToBitmap(drawable);
-							saveBitmapToFolder(image, file);
-							GodotLib.calldeferred(instance_id, godotFunction, new Object[] { extraInfo, CACHE_FOLDER, fileName});
-						}
-					}, uri);
-				}
-			});
+		if (isFreshOnDisk(fileName)){
+			GpgsLog.d("Image already cached and available: ", file);
+			listener.onImageCached(fileName, true);
+			return;
+		}
+
+		// Attach to a download of the same file that is already running
+		synchronized (IN_FLIGHT) {
+			List<OnImageCachedListener> waiters = IN_FLIGHT.get(fileName);
+			if (waiters != null) {
+				waiters.add(listener);
+				mergedRequests++;
+				GpgsLog.d("Image already being loaded, waiting for it: ", fileName);
+				return;
+			}
+			waiters = new ArrayList<>();
+			waiters.add(listener);
+			IN_FLIGHT.put(fileName, waiters);
 		}
+
+		WorkScheduler.getInstance().schedule(priority, constraint, new Callable<Task<Boolean>>() {
+			@Override
+			public Task<Boolean> call() {
+				return download(uri, fileName, file);
+			}
+		});
+    }
+
+    /**
+     * @return completes once the image is stored, or could not be loaded
+     */
+    private Task<Boolean> download(final Uri uri, final String fileName, final File file){
+		final TaskCompletionSource<Boolean> source = new TaskCompletionSource<>();
+		final long startedAt = Metrics.start();
+		GamesBackend current = backend;
+		Task<Bitmap> loading = current != null ? current.loadImage(uri) : PlayGamesBackend.loadImage(activity, uri);
+		loading.addOnCompleteListener(new OnCompleteListener<Bitmap>() {
+			@Override
+			public void onComplete(@NonNull Task<Bitmap> task) {
+				GpgsLog.d("saveURIImage(): uri = ", uri);
+
+				if (!task.isSuccessful() || task.getResult() == null) {
+					GpgsLog.w("saveURIImage(): no image could be loaded for ", fileName);
+					Metrics.record(Metrics.OP_IMAGE_LOAD, startedAt, task.isSuccessful() ? Metrics.OUTCOME_FAILURE : Metrics.outcomeOf(task));
+					completeInFlight(fileName, false);
+					source.trySetResult(false);
+					return;
+				}
+
+				Metrics.record(Metrics.OP_IMAGE_LOAD, startedAt, Metrics.OUTCOME_SUCCESS);
+				final Bitmap image = task.getResult();
+				putInMemory(fileName, image);
+
+				// Compression and file I/O stay off the UI thread; Godot is only
+				// told about the file once it is completely on disk
+				ENCODER.execute(new Runnable() {
+					@Override
+					public void run() {
+						boolean stored = saveBitmapToFolder(image, file);
+						if (stored) Metrics.addBytes(Metrics.BYTES_IMAGE_STORED, file.length());
+						completeInFlight(fileName, stored);
+						source.trySetResult(stored);
+					}
+				});
+			}
+		});
+		return source.getTask();
     }
 
     public Bitmap getBitmap(String fileName){
         if (fileName.contains("/")){
-            Log.d(TAG, "fileName is formatted as a path: " + fileName);
-            fileName = fileName.substring(fileName.lastIndexOf("/")+1);
-            Log.d(TAG, "Overriding path parameters in fileName and trying to retrieve file from cache: " + fileName);
+            GpgsLog.d("fileName is formatted as a path, using only its last segment: ", fileName);
+            fileName = CacheKeys.stripPath(fileName);
         }
+
+        Bitmap bitmap = memoryCache.get(fileName);
+        if (bitmap != null) {
+            synchronized (GodotCache.class) { memoryHits++; }
+            return bitmap;
+        }
+        synchronized (GodotCache.class) { memoryMisses++; }
+
         File imgLoc = new File(cacheDir, fileName);
-        Log.d(TAG, "Getting image bitmap from: " + imgLoc.getAbsolutePath());
-        return BitmapFactory.decodeFile(new File(cacheDir, fileName).getAbsolutePath());
+        GpgsLog.d("Getting image bitmap from: ", imgLoc);
+        bitmap = BitmapFactory.decodeFile(imgLoc.getAbsolutePath());
+        if (bitmap != null) {
+            diskIndex.touch(fileName, System.currentTimeMillis());
+            putInMemory(fileName, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * @return the location of fileName in the cache folder. Any path in fileName is ignored.
+     */
+    public File getFile(String fileName){
+        return new File(cacheDir, CacheKeys.stripPath(fileName));
     }
 
     public boolean hasFile(String fileName){
@@ -77,71 +238,220 @@ public class GodotCache {
     	return file.exists();
 	}
 
-    public static void clearCache(Activity activity){
-        File cacheDir = new File(activity.getApplicationInfo().dataDir + File.separator + GODOT_SUB_FOLDER);
+    /**
+     * @param backend loads the images that are not cached yet, null to use Play Games' ImageManager
+     */
+    public static void setBackend(GamesBackend backend){
+        GodotCache.backend = backend;
+    }
+
+    /**
+     * A budget of 0 or less is rejected and the current one kept.
+     *
+     * @param memoryBudgetBytes size of the decoded bitmaps kept in memory
+     * @param diskBudgetBytes   size of the files kept in the cache folder
+     * @param ttlSeconds        age after which a cached image is downloaded again (0 = never)
+     */
+    public static synchronized void configure(int memoryBudgetBytes, long diskBudgetBytes, long ttlSeconds){
+        GodotCache.ttlMs = Math.max(0, ttlSeconds) * 1000;
+        if (memoryBudgetBytes > 0) {
+            memoryCache = createMemoryCache(memoryBudgetBytes, memoryCache);
+        } else {
+            GpgsLog.w("GodotCache: ignoring memory budget of bytes: ", memoryBudgetBytes);
+        }
+        if (diskBudgetBytes <= 0) {
+            GpgsLog.w("GodotCache: ignoring disk budget of bytes: ", diskBudgetBytes);
+            return;
+        }
+        GodotCache.diskBudgetBytes = diskBudgetBytes;
+        if (diskIndex != null) {
+            diskIndex.trimToSize(diskBudgetBytes);
+            diskIndex.persist();
+        }
+    }
+
+    /**
+     * @param format  FORMAT_PNG, FORMAT_WEBP_LOSSLESS or FORMAT_WEBP_LOSSY
+     * @param quality 0-100, only used by the lossy format
+     */
+    public static synchronized void setImageFormat(int format, int quality){
+        if (format < FORMAT_PNG || format > FORMAT_WEBP_LOSSY) format = FORMAT_PNG;
+        imageFormat = format;
+        imageQuality = format == FORMAT_WEBP_LOSSY ? Math.max(0, Math.min(100, quality)) : 100;
+    }
+
+    public static synchronized Dictionary getStats(){
+        Dictionary stats = new Dictionary();
+        synchronized (IN_FLIGHT) {
+            stats.put("requests_merged", mergedRequests);
+            stats.put("requests_in_flight", IN_FLIGHT.size());
+        }
+        stats.put("memory_hits", memoryHits);
+        stats.put("memory_misses", memoryMisses);
+        stats.put("memory_evictions", memoryEvictions);
+        stats.put("memory_bytes", memoryCache != null ? memoryCache.size() : 0);
+        stats.put("disk_hits", diskHits);
+        stats.put("disk_misses", diskMisses);
+        stats.put("disk_expired", diskExpired);
+        stats.put("disk_evictions", diskIndex != null ? diskIndex.getEvictionCount() : 0);
+        stats.put("disk_bytes", diskIndex != null ? diskIndex.getTotalBytes() : 0L);
+        stats.put("disk_files", diskIndex != null ? diskIndex.getFileCount() : 0);
+        return stats;
+    }
+
+    /**
+     * Writes the disk index if it changed, e.g. when the app is paused.
+     */
+    public static synchronized void persistIndex(){
+        if (diskIndex != null) diskIndex.persist();
+    }
+
+    /**
+     * @return the folder cached images are stored in, user://gpgs_lib_cache in Godot
+     */
+    public static File getCacheDir(Activity activity){
+        return new File(activity.getApplicationInfo().dataDir + File.separator + GODOT_SUB_FOLDER, CACHE_FOLDER);
+    }
+
+    public static synchronized void clearCache(Activity activity){
+        File cacheDir = getCacheDir(activity);
         if (cacheDir.isDirectory()){
             for(File tempFile : cacheDir.listFiles()) {
-                Log.d(TAG, "cached file deleted: " + tempFile.getPath());
+                GpgsLog.d("cached file deleted: ", tempFile);
                 tempFile.delete();
             }
         }
+        if (memoryCache != null) memoryCache.evictAll();
+        if (diskIndex != null) diskIndex.clear();
     }
 
     private void prepareStorage() {
-        String srcDir = activity.getApplicationInfo().dataDir + File.separator + GODOT_SUB_FOLDER;
-
-        cacheDir = new File(srcDir, CACHE_FOLDER);
+        cacheDir = getCacheDir(activity);
         if (!cacheDir.exists()){
 			if (cacheDir.mkdirs()) { //make the directory
-				Log.d(TAG, "Directory Created: " + cacheDir.getAbsolutePath());
+				GpgsLog.d("Directory Created: ", cacheDir);
 			} else {
-				Log.d(TAG, "Failed to create directory: " + cacheDir.getAbsolutePath());
+				GpgsLog.w("Failed to create directory: ", cacheDir);
 			}
 		}else{
-			Log.d(TAG, "Directory already exists: " + cacheDir.getAbsolutePath());
+			GpgsLog.d("Directory already exists: ", cacheDir);
 		}
 
+        synchronized (GodotCache.class) {
+            if (memoryCache == null) memoryCache = createMemoryCache(DEFAULT_MEMORY_BUDGET_BYTES, null);
+            if (diskIndex == null) diskIndex = new DiskCacheIndex(cacheDir, Journal.open(activity, INDEX_NAME));
+        }
     }
 
-    private void saveBitmapToFolder(Bitmap bitmap, File file){
-        // Delete any previously existing image with the same name
-        if (file.exists())
-            file.delete();
+    /**
+     * LruCache.resize() needs API 21, so a new budget means a new cache. The bitmaps of previous
+     * are copied over from least to most recently used, so the new budget evicts the oldest.
+     */
+    private static LruCache<String, Bitmap> createMemoryCache(int budgetBytes, LruCache<String, Bitmap> previous){
+        LruCache<String, Bitmap> cache = new LruCache<String, Bitmap>(budgetBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount();
+            }
 
-        // Write the new image
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                if (evicted) {
+                    synchronized (GodotCache.class) { memoryEvictions++; }
+                }
+            }
+        };
+        if (previous != null) {
+            for (Map.Entry<String, Bitmap> entry : previous.snapshot().entrySet()) {
+                cache.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Removes the in-flight entry for fileName and notifies every request that was waiting for it.
+     */
+    private static void completeInFlight(String fileName, boolean stored){
+        List<OnImageCachedListener> waiters;
+        synchronized (IN_FLIGHT) {
+            waiters = IN_FLIGHT.remove(fileName);
+        }
+        if (waiters == null) return;
+
+        for (OnImageCachedListener waiter : waiters) {
+            waiter.onImageCached(fileName, stored);
+        }
+    }
+
+    private void putInMemory(String fileName, Bitmap bitmap){
+        if (bitmap != null) memoryCache.put(fileName, bitmap);
+    }
+
+    private boolean isFreshOnDisk(String fileName){
+        if (diskIndex.isFresh(fileName, ttlMs, System.currentTimeMillis())) {
+            synchronized (GodotCache.class) { diskHits++; }
+            return true;
+        }
+        synchronized (GodotCache.class) {
+            if (diskIndex.contains(fileName)) diskExpired++;
+            else diskMisses++;
+        }
+        return false;
+    }
+
+    /**
+     * Encodes the bitmap into a temporary file next to the target and renames it into place, so
+     * a reader never sees a partially written image. Runs on the encoder thread.
+     */
+    private boolean saveBitmapToFolder(Bitmap bitmap, File file){
+        File tmp = new File(file.getPath() + TEMP_SUFFIX);
+        FileOutputStream out = null;
         try {
-            FileOutputStream out = new FileOutputStream(file);
-            bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+            out = new FileOutputStream(tmp);
+            if (!bitmap.compress(getCompressFormat(), imageQuality, out)) {
+                GpgsLog.w("Failed to encode image: ", file);
+                return false;
+            }
             out.flush();
+            out.getFD().sync();
             out.close();
-            Log.d(TAG,"Image stored at: " + file.getAbsolutePath());
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
+            out = null;
 
-    private Bitmap drawableToBitmap (Drawable drawable) {
-        Bitmap bitmap = null;
+            if (!tmp.renameTo(file)) {
+                GpgsLog.w("Failed to move image into place: ", file);
+                return false;
+            }
+            GpgsLog.d("Image stored at: ", file);
 
-        if (drawable instanceof BitmapDrawable) {
-            Log.d(TAG,"drawbaleToBitmap(): drawable is instance of BitmapDrawable");
-            BitmapDrawable bitmapDrawable = (BitmapDrawable) drawable;
-            if(bitmapDrawable.getBitmap() != null) {
-                Log.d(TAG,"drawbaleToBitmap(): bitmapDrawable is not null");
-                return bitmapDrawable.getBitmap();
+            diskIndex.put(file.getName(), file.length(), System.currentTimeMillis());
+            diskIndex.trimToSize(diskBudgetBytes);
+            diskIndex.persistSoon();
+            return true;
+        } catch (Exception e) {
+            GpgsLog.e("Failed to store image: ", file, e);
+            return false;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
             }
+            if (tmp.exists()) tmp.delete();
         }
+    }
 
-        Log.d(TAG,"drawbaleToBitmap(): drawable is not an instance of BitmapDrawable or bitmapDrawable was null");
-        if(drawable.getIntrinsicWidth() <= 0 || drawable.getIntrinsicHeight() <= 0) {
-            bitmap = Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888); // Single color bitmap will be created of 1x1 pixel
-        } else {
-            bitmap = Bitmap.createBitmap(drawable.getIntrinsicWidth(), drawable.getIntrinsicHeight(), Bitmap.Config.ARGB_8888);
+    private static Bitmap.CompressFormat getCompressFormat(){
+        switch (imageFormat) {
+            case FORMAT_WEBP_LOSSLESS:
+                // WEBP at quality 100 is only lossless from Android 10 on; before that PNG is
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) return Bitmap.CompressFormat.WEBP;
+                return Bitmap.CompressFormat.PNG;
+            case FORMAT_WEBP_LOSSY:
+                return Bitmap.CompressFormat.WEBP;
+            default:
+                return Bitmap.CompressFormat.PNG;
         }
-
-        Canvas canvas = new Canvas(bitmap);
-        drawable.setBounds(0, 0, canvas.getWidth(), canvas.getHeight());
-        drawable.draw(canvas);
-        return bitmap;
     }
 }
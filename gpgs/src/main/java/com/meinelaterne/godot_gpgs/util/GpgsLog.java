@@ -0,0 +1,138 @@
+package com.meinelaterne.godot_gpgs.util;
+
+import android.util.Log;
+
+import org.godotengine.godot.Dictionary;
+
+/**
+ * Logging with a level that can be changed at runtime. The message and its argument are only
+ * joined once a level is enabled, so disabled calls do not format or allocate; pass values as
+ * the argument rather than concatenating them at the call site.
+ *
+ * Entries at or above the buffer level are also kept in a fixed-size ring buffer that Godot can
+ * dump for bug reports, independent of what reaches logcat.
+ */
+public class GpgsLog {
+    private static final String TAG = "gpgs";
+
+    public static final int VERBOSE = Log.VERBOSE;
+    public static final int DEBUG = Log.DEBUG;
+    public static final int INFO = Log.INFO;
+    public static final int WARN = Log.WARN;
+    public static final int ERROR = Log.ERROR;
+    public static final int NONE = Log.ASSERT + 1;
+
+    private static final int BUFFER_SIZE = 256;
+
+    private static volatile int logcatLevel = INFO;
+    private static volatile int bufferLevel = INFO;
+
+    private static final Object BUFFER_LOCK = new Object();
+    private static final long[] times = new long[BUFFER_SIZE];
+    private static final int[] levels = new int[BUFFER_SIZE];
+    private static final String[] messages = new String[BUFFER_SIZE];
+    private static int next = 0;
+    private static int count = 0;
+
+    private GpgsLog() {
+    }
+
+    /**
+     * @param logcatLevel lowest level written to logcat, NONE to turn logcat output off
+     * @param bufferLevel lowest level kept in the ring buffer, NONE to turn it off
+     */
+    public static void setLevels(int logcatLevel, int bufferLevel) {
+        GpgsLog.logcatLevel = logcatLevel;
+        GpgsLog.bufferLevel = bufferLevel;
+    }
+
+    /**
+     * For call sites that need more than one argument; check this before building the message.
+     */
+    public static boolean isEnabled(int level) {
+        return level >= logcatLevel || level >= bufferLevel;
+    }
+
+    public static void d(String message) {
+        if (isEnabled(DEBUG)) write(DEBUG, message, null);
+    }
+
+    public static void d(String message, Object arg) {
+        if (isEnabled(DEBUG)) write(DEBUG, message + arg, null);
+    }
+
+    public static void d(String message, long arg) {
+        if (isEnabled(DEBUG)) write(DEBUG, message + arg, null);
+    }
+
+    public static void i(String message) {
+        if (isEnabled(INFO)) write(INFO, message, null);
+    }
+
+    public static void i(String message, Object arg) {
+        if (isEnabled(INFO)) write(INFO, message + arg, null);
+    }
+
+    public static void w(String message) {
+        if (isEnabled(WARN)) write(WARN, message, null);
+    }
+
+    public static void w(String message, Object arg) {
+        if (isEnabled(WARN)) write(WARN, message + arg, null);
+    }
+
+    public static void e(String message, Throwable error) {
+        if (isEnabled(ERROR)) write(ERROR, message, error);
+    }
+
+    public static void e(String message, Object arg, Throwable error) {
+        if (isEnabled(ERROR)) write(ERROR, message + arg, error);
+    }
+
+    /**
+     * @return the buffered entries, oldest first, each as a Dictionary with time_ms (wall clock),
+     *         level and message
+     */
+    public static Object[] dump() {
+        synchronized (BUFFER_LOCK) {
+            Object[] entries = new Object[count];
+            int first = (next - count + BUFFER_SIZE) % BUFFER_SIZE;
+            for (int i = 0; i < count; i++) {
+                int index = (first + i) % BUFFER_SIZE;
+                Dictionary entry = new Dictionary();
+                entry.put("time_ms", times[index]);
+                entry.put("level", levels[index]);
+                entry.put("message", messages[index]);
+                entries[i] = entry;
+            }
+            return entries;
+        }
+    }
+
+    public static void clear() {
+        synchronized (BUFFER_LOCK) {
+            for (int i = 0; i < BUFFER_SIZE; i++) {
+                messages[i] = null;
+            }
+            next = 0;
+            count = 0;
+        }
+    }
+
+    private static void write(int level, String message, Throwable error) {
+        if (level >= logcatLevel) {
+            if (error != null) Log.println(level, TAG, message + '\n' + Log.getStackTraceString(error));
+            else Log.println(level, TAG, message);
+        }
+        if (level >= bufferLevel) {
+            String entry = error != null ? message + ": " + error : message;
+            synchronized (BUFFER_LOCK) {
+                times[next] = System.currentTimeMillis();
+                levels[next] = level;
+                messages[next] = entry;
+                next = (next + 1) % BUFFER_SIZE;
+                if (count < BUFFER_SIZE) count++;
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.meinelaterne.godot_gpgs.util;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+import com.google.android.gms.tasks.CancellationToken;
+import com.google.android.gms.tasks.Task;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Runs every call of another {@link GamesBackend} through a {@link TaskGuard}, so each one has a
+ * deadline, is retried on transient failures if that is safe and is stopped by an open circuit.
+ * Snapshot calls get the token of their guarded call, so a snapshot that is only opened after the
+ * guard gave up is closed instead of read or committed.
+ */
+public class GuardedGamesBackend implements GamesBackend {
+
+    private final GamesBackend backend;
+    private final TaskGuard guard;
+
+    public GuardedGamesBackend(GamesBackend backend, TaskGuard guard) {
+        this.backend = backend;
+        this.guard = guard;
+    }
+
+    @Override
+    public String getAccountID() {
+        return backend.getAccountID();
+    }
+
+    @Override
+    public Task<CurrentPlayer> loadCurrentPlayer() {
+        return guard.run(TaskGuard.OP_PLAYER, new Callable<Task<CurrentPlayer>>() {
+            @Override
+            public Task<CurrentPlayer> call() {
+                return backend.loadCurrentPlayer();
+            }
+        });
+    }
+
+    @Override
+    public Task<Integer> loadAchievements(final boolean forceReload) {
+        return guard.run(TaskGuard.OP_ACHIEVEMENT_LOAD, new Callable<Task<Integer>>() {
+            @Override
+            public Task<Integer> call() {
+                return backend.loadAchievements(forceReload);
+            }
+        });
+    }
+
+    @Override
+    public Task<Void> unlockAchievement(final String achievementID) {
+        return guard.run(TaskGuard.OP_ACHIEVEMENT, new Callable<Task<Void>>() {
+            @Override
+            public Task<Void> call() {
+                return backend.unlockAchievement(achievementID);
+            }
+        });
+    }
+
+    @Override
+    public Task<Boolean> incrementAchievement(final String achievementID, final int steps) {
+        return guard.run(TaskGuard.OP_ACHIEVEMENT_INCREMENT, new Callable<Task<Boolean>>() {
+            @Override
+            public Task<Boolean> call() {
+                return backend.incrementAchievement(achievementID, steps);
+            }
+        });
+    }
+
+    @Override
+    public Task<Void> submitScore(final String leaderboardID, final long score) {
+        return guard.run(TaskGuard.OP_SCORE, new Callable<Task<Void>>() {
+            @Override
+            public Task<Void> call() {
+                return backend.submitScore(leaderboardID, score);
+            }
+        });
+    }
+
+    @Override
+    public Task<List<SnapshotInfo>> listSnapshots(final boolean forceReload) {
+        return guard.run(TaskGuard.OP_SNAPSHOT_LIST, new Callable<Task<List<SnapshotInfo>>>() {
+            @Override
+            public Task<List<SnapshotInfo>> call() {
+                return backend.listSnapshots(forceReload);
+            }
+        });
+    }
+
+    @Override
+    public Task<SnapshotData> readSnapshot(final String snapshotName, final int conflictPolicy,
+                                           CancellationToken cancellationToken) {
+        return guard.run(TaskGuard.OP_SNAPSHOT_READ, cancellationToken, new TaskGuard.Call<SnapshotData>() {
+            @Override
+            public Task<SnapshotData> start(CancellationToken abandoned) {
+                return backend.readSnapshot(snapshotName, conflictPolicy, abandoned);
+            }
+        });
+    }
+
+    @Override
+    public Task<SnapshotInfo> writeSnapshot(final String snapshotName, final byte[] contents, final String description,
+                                            final Bitmap coverImage, final int conflictPolicy,
+                                            CancellationToken cancellationToken) {
+        return guard.run(TaskGuard.OP_SNAPSHOT_WRITE, cancellationToken, new TaskGuard.Call<SnapshotInfo>() {
+            @Override
+            public Task<SnapshotInfo> start(CancellationToken abandoned) {
+                return backend.writeSnapshot(snapshotName, contents, description, coverImage, conflictPolicy, abandoned);
+            }
+        });
+    }
+
+    @Override
+    public Task<Bitmap> loadImage(final Uri uri) {
+        return guard.run(TaskGuard.OP_IMAGE, new Callable<Task<Bitmap>>() {
+            @Override
+            public Task<Bitmap> call() {
+                return backend.loadImage(uri);
+            }
+        });
+    }
+}
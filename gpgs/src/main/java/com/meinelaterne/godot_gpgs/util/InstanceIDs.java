@@ -0,0 +1,28 @@
+package com.meinelaterne.godot_gpgs.util;
+
+/**
+ * Parses the instance IDs Godot passes to init(). Kept free of Android types so it can be
+ * benchmarked on a plain JVM.
+ */
+public class InstanceIDs {
+
+    private InstanceIDs() {
+    }
+
+    /**
+     * @param ids         one or more instance IDs. If there are fewer IDs than entries in
+     *                    instanceIDs, the last ID is repeated for the remaining entries
+     * @param delimiter   the string that separates the IDs
+     * @param instanceIDs filled with the parsed IDs
+     */
+    public static void parse(String ids, String delimiter, int[] instanceIDs) {
+        String[] splitIDs = ids.split(delimiter);
+
+        for (int i = 0; i < instanceIDs.length; i++) {
+            if (i < splitIDs.length) instanceIDs[i] = Integer.parseInt(splitIDs[i]);
+            else instanceIDs[i] = Integer.parseInt(splitIDs[splitIDs.length - 1]);
+
+            if (GpgsLog.isEnabled(GpgsLog.DEBUG)) GpgsLog.d("Instance ID [" + i + "]: ", instanceIDs[i]);
+        }
+    }
+}
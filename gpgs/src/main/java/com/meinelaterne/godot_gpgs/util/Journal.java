@@ -0,0 +1,238 @@
+package com.meinelaterne.godot_gpgs.util;
+
+import android.app.Activity;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A small append-only record file in the app data directory. Each record is one line of
+ * tab separated fields, so fields must not contain tabs or line breaks. Appends and
+ * compactions of all journals run in order on one shared writer thread and are synced to disk
+ * before the next one starts; callers only hand the record over. Use awaitWrites() where the
+ * process may be killed next, e.g. when the app is paused.
+ */
+public class Journal {
+    public static final String DATA_FOLDER = "gpgs_lib_data";
+
+    private static final String FIELD_SEPARATOR = "\t";
+    private static final String RECORD_SEPARATOR = "\n";
+
+    // Shared, so journals never leak threads and two handles of one file never write at once
+    private static final ExecutorService WRITER = Executors.newSingleThreadExecutor();
+
+    private final File file;
+    private volatile boolean closed = false;
+    // Records not written yet, shared by appends in a row so they get one write and one sync
+    private StringBuilder pendingLines = null;
+
+    public Journal(File file) {
+        this.file = file;
+    }
+
+    public static Journal open(Activity activity, String name) {
+        File dataDir = new File(activity.getApplicationInfo().dataDir, DATA_FOLDER);
+        if (!dataDir.exists() && !dataDir.mkdirs()) {
+            GpgsLog.d("Failed to create directory: ", dataDir.getAbsolutePath());
+        }
+        return new Journal(new File(dataDir, name));
+    }
+
+    /**
+     * @return the journal with the given name that belongs to one account
+     */
+    public static Journal openForAccount(Activity activity, String name, String accountID) {
+        return open(activity, name + "." + accountID.replaceAll("[^A-Za-z0-9_-]", "_"));
+    }
+
+    /**
+     * Reads every complete record in the journal. A trailing partial line left by a killed
+     * process is ignored.
+     */
+    public List<String[]> readAll() {
+        List<String[]> records = new ArrayList<>();
+        if (!file.exists()) return records;
+
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            StringBuilder text = new StringBuilder();
+            char[] buffer = new char[4096];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                text.append(buffer, 0, read);
+            }
+
+            int start = 0;
+            int end;
+            while ((end = text.indexOf(RECORD_SEPARATOR, start)) != -1) {
+                if (end > start) records.add(text.substring(start, end).split(FIELD_SEPARATOR));
+                start = end + 1;
+            }
+        } catch (IOException e) {
+            GpgsLog.e("ERROR while reading journal ", file.getName(), e);
+        } finally {
+            closeQuietly(reader);
+        }
+        return records;
+    }
+
+    public void append(String... fields) {
+        if (closed) return;
+        String line = join(fields);
+        final StringBuilder lines;
+        synchronized (this) {
+            if (pendingLines != null) {
+                pendingLines.append(line);
+                return;
+            }
+            lines = pendingLines = new StringBuilder(line);
+        }
+        WRITER.execute(new Runnable() {
+            @Override
+            public void run() {
+                String text;
+                synchronized (Journal.this) {
+                    if (pendingLines == lines) pendingLines = null;
+                    text = lines.toString();
+                }
+                write(text);
+            }
+        });
+    }
+
+    /**
+     * Replaces the journal with the given records. The new content is written to a temporary
+     * file first and renamed into place, so a crash never leaves a half-written journal.
+     */
+    public void rewrite(List<String[]> records) {
+        if (closed) return;
+        final StringBuilder content = new StringBuilder();
+        for (String[] record : records) {
+            content.append(join(record));
+        }
+        synchronized (this) {
+            // Appends from here on must be written after the new content
+            pendingLines = null;
+        }
+        WRITER.execute(new Runnable() {
+            @Override
+            public void run() {
+                File tmp = new File(file.getPath() + ".tmp");
+                Writer out = null;
+                try {
+                    FileOutputStream stream = new FileOutputStream(tmp, false);
+                    out = new OutputStreamWriter(stream, "UTF-8");
+                    out.write(content.toString());
+                    out.flush();
+                    stream.getFD().sync();
+                    out.close();
+                    out = null;
+                    if (!tmp.renameTo(file)) {
+                        GpgsLog.d("Failed to replace journal: ", file.getAbsolutePath());
+                    }
+                } catch (IOException e) {
+                    GpgsLog.e("ERROR while compacting journal ", file.getName(), e);
+                } finally {
+                    closeQuietly(out);
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops taking records, e.g. once another handle takes over the file. Writes already handed
+     * over are still done.
+     */
+    public void close() {
+        closed = true;
+    }
+
+    /**
+     * Removes the file once the writes already handed over are done. The journal ignores
+     * everything after that.
+     */
+    public void delete() {
+        if (closed) return;
+        closed = true;
+        WRITER.execute(new Runnable() {
+            @Override
+            public void run() {
+                File tmp = new File(file.getPath() + ".tmp");
+                if ((file.exists() && !file.delete()) || (tmp.exists() && !tmp.delete())) {
+                    GpgsLog.d("Failed to delete journal: ", file.getAbsolutePath());
+                }
+            }
+        });
+    }
+
+    /**
+     * Blocks until the records of every journal handed over so far are on disk.
+     *
+     * @return false if that took longer than timeoutMs
+     */
+    public static boolean awaitWrites(long timeoutMs) {
+        Future<?> done = WRITER.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+        try {
+            done.get(timeoutMs, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException | TimeoutException e) {
+            return false;
+        }
+    }
+
+    private void write(String line) {
+        Writer out = null;
+        try {
+            FileOutputStream stream = new FileOutputStream(file, true);
+            out = new OutputStreamWriter(stream, "UTF-8");
+            out.write(line);
+            out.flush();
+            // A record is only durable once it has left the page cache
+            stream.getFD().sync();
+        } catch (IOException e) {
+            GpgsLog.e("ERROR while writing journal ", file.getName(), e);
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    private static String join(String[] fields) {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) line.append(FIELD_SEPARATOR);
+            line.append(fields[i]);
+        }
+        return line.append(RECORD_SEPARATOR).toString();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -3,8 +3,6 @@ package com.meinelaterne.godot_gpgs.util;
 import android.app.Activity;
 import android.content.Intent;
 
-import com.google.android.gms.auth.api.signin.GoogleSignInAccount;
-import com.google.android.gms.games.Games;
 import com.google.android.gms.tasks.OnSuccessListener;
 
 public class Leaderboard {
@@ -14,17 +12,20 @@ public class Leaderboard {
 
     private Activity activity = null;
     private int instance_id = 0;
-    private GoogleSignInAccount signedInAccount = null;
+    private GamesSession session = null;
 
-    public Leaderboard(Activity activity, GoogleSignInAccount signedInAccount, int instance_id) {
-        this.signedInAccount = signedInAccount;
+    public Leaderboard(Activity activity, int instance_id) {
         this.activity = activity;
         this.instance_id = instance_id;
     }
 
+    public void setSession(GamesSession session) {
+        this.session = session;
+    }
+
     public boolean showLeaderboardUI(String leaderboardID){
-        if (signedInAccount != null){
-            Games.getLeaderboardsClient(activity,signedInAccount)
+        if (session != null){
+            session.getLeaderboardsClient()
                     .getLeaderboardIntent(leaderboardID)
                     .addOnSuccessListener(new OnSuccessListener<Intent>() {
                         @Override
@@ -36,9 +37,4 @@ public class Leaderboard {
         }
         return false;
     }
-
-    public void submitScore(String leaderboardID, int score){
-        if (signedInAccount != null)
-            Games.getLeaderboardsClient(activity, signedInAccount).submitScore(leaderboardID, score);
-    }
 }
@@ -0,0 +1,268 @@
+package com.meinelaterne.godot_gpgs.util;
+
+import android.app.Activity;
+import android.os.SystemClock;
+
+import org.godotengine.godot.Dictionary;
+
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Soak test for the plugin's queues. Drives achievement unlocks and increments, score submits
+ * and saves at fixed rates through its own AchievementOutbox, ScoreSubmitter and SavedGames,
+ * which talk to a {@link FakeGamesBackend} instead of Play Games, so no account is needed and the
+ * real outboxes and journals are left alone. Saves are committed through a {@link WorkScheduler}
+ * of the test's own, so they never take the slots of the game's work. Unless guarded is false in
+ * the config, the fake is wrapped in a {@link GuardedGamesBackend} with its own
+ * {@link TaskGuard}, as Play Games is. Queue depths and heap use are sampled while it runs; once
+ * the duration is over the queues are flushed until they are empty and Godot gets a report.
+ *
+ * Save results go to the instance ID of the test like any other saved game callback. When the
+ * test ends, its journals and the local copies of its saves under the fake account are deleted.
+ */
+public class LoadGenerator {
+
+    private static final String[] GODOT_CALLBACK_FUNCTIONS = new String[] {
+            "_on_play_game_services_load_test_completed", //(Dictionary report)
+    };
+
+    private static final String ACHIEVEMENT_JOURNAL_NAME = "achievements.loadtest.journal";
+    private static final String SCORE_JOURNAL_NAME = "scores.loadtest.journal";
+
+    private static final long TICK_MS = 10;
+    private static final int TICKS_PER_SAMPLE = 10;
+
+    private final int instance_id;
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor();
+
+    private final long durationMs;
+    private final long drainTimeoutMs;
+    private final double unlocksPerSecond;
+    private final double incrementsPerSecond;
+    private final double submitsPerSecond;
+    private final double savesPerSecond;
+    private final int achievementCount;
+    private final int leaderboardCount;
+    private final int snapshotCount;
+    private final byte[] saveData;
+
+    private final Random random;
+    private final FakeGamesBackend backend;
+    private final TaskGuard guard;
+    private final WorkScheduler scheduler = new WorkScheduler();
+    private final AchievementOutbox achievementOutbox;
+    private final ScoreSubmitter scoreSubmitter;
+    private final SavedGames savedGames;
+
+    // Only touched on the ticker thread
+    private long startedAt;
+    private long drainStartedAt = 0;
+    private int ticks = 0;
+    private long unlocks = 0;
+    private long increments = 0;
+    private long submits = 0;
+    private long saves = 0;
+    private int maxOutboxPending = 0;
+    private int maxSubmitterPending = 0;
+    private int maxSavesPending = 0;
+    private int maxSchedulerQueued = 0;
+    private int maxDispatcherQueued = 0;
+    private int maxBackendInFlight = 0;
+    private long heapAtStart;
+    private long maxHeap = 0;
+
+    private volatile boolean finished = false;
+
+    /**
+     * @param config duration_ms, drain_timeout_ms, unlocks_per_second, increments_per_second,
+     *               submits_per_second, saves_per_second, achievements, leaderboards, snapshots,
+     *               save_bytes, min_latency_ms, max_latency_ms, failure_rate, seed and guarded.
+     *               Missing entries keep their defaults.
+     */
+    public LoadGenerator(Activity activity, int instance_id, Dictionary config) {
+        this.instance_id = instance_id;
+        durationMs = number(config, "duration_ms", 10000).longValue();
+        drainTimeoutMs = number(config, "drain_timeout_ms", 30000).longValue();
+        unlocksPerSecond = number(config, "unlocks_per_second", 1000).doubleValue();
+        incrementsPerSecond = number(config, "increments_per_second", 1000).doubleValue();
+        submitsPerSecond = number(config, "submits_per_second", 1000).doubleValue();
+        savesPerSecond = number(config, "saves_per_second", 100).doubleValue();
+        achievementCount = Math.max(1, number(config, "achievements", 5000).intValue());
+        leaderboardCount = Math.max(1, number(config, "leaderboards", 50).intValue());
+        snapshotCount = Math.max(1, number(config, "snapshots", 5).intValue());
+
+        long seed = number(config, "seed", 1).longValue();
+        random = new Random(seed);
+        saveData = new byte[Math.max(0, number(config, "save_bytes", 4096).intValue())];
+        random.nextBytes(saveData);
+
+        backend = new FakeGamesBackend(seed);
+        backend.setLatency(number(config, "min_latency_ms", 20).intValue(), number(config, "max_latency_ms", 200).intValue());
+        backend.setFailureRate(number(config, "failure_rate", 0.01).doubleValue());
+        Object guarded = config != null ? config.get("guarded") : null;
+        guard = Boolean.FALSE.equals(guarded) ? null : new TaskGuard();
+
+        achievementOutbox = new AchievementOutbox(activity, ACHIEVEMENT_JOURNAL_NAME);
+        scoreSubmitter = new ScoreSubmitter(activity, instance_id, SCORE_JOURNAL_NAME);
+        scoreSubmitter.setSubmitInterval(1);
+        savedGames = new SavedGames(activity, instance_id);
+        savedGames.setScheduler(scheduler);
+    }
+
+    public void start() {
+        GpgsLog.i("LoadGenerator: starting");
+        System.gc();
+        heapAtStart = usedHeap();
+        startedAt = SystemClock.elapsedRealtime();
+
+        GamesBackend target = guard != null ? new GuardedGamesBackend(backend, guard) : backend;
+        achievementOutbox.setBackend(target);
+        scoreSubmitter.setBackend(target);
+        savedGames.setBackend(target);
+
+        ticker.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    tick();
+                } catch (RuntimeException e) {
+                    GpgsLog.e("LoadGenerator: aborted", e);
+                    finish(false);
+                }
+            }
+        }, 0, TICK_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    private void tick() {
+        long now = SystemClock.elapsedRealtime();
+        ticks++;
+
+        if (drainStartedAt == 0) {
+            long elapsed = Math.min(now - startedAt, durationMs);
+            for (; unlocks < due(unlocksPerSecond, elapsed); unlocks++) {
+                achievementOutbox.unlock("load_test_achievement_" + random.nextInt(achievementCount));
+            }
+            for (; increments < due(incrementsPerSecond, elapsed); increments++) {
+                achievementOutbox.increment("load_test_achievement_" + random.nextInt(achievementCount), 1 + random.nextInt(5));
+            }
+            for (; submits < due(submitsPerSecond, elapsed); submits++) {
+                scoreSubmitter.submit("load_test_leaderboard_" + random.nextInt(leaderboardCount), random.nextInt(1000000));
+            }
+            for (; saves < due(savesPerSecond, elapsed); saves++) {
+                savedGames.requestWriteSnapshotBytes("load_test_snapshot_" + random.nextInt(snapshotCount), saveData, "Load test", null);
+            }
+            if (now - startedAt >= durationMs) {
+                drainStartedAt = now;
+                GpgsLog.d("LoadGenerator: draining");
+            }
+        }
+
+        if (ticks % TICKS_PER_SAMPLE != 0) return;
+        int pending = sample();
+
+        if (drainStartedAt != 0) {
+            if (pending == 0) {
+                finish(true);
+            } else if (now - drainStartedAt >= drainTimeoutMs) {
+                GpgsLog.w("LoadGenerator: queues did not drain in time");
+                finish(false);
+            } else {
+                // Failed batches are only retried on the next event, as after a pause in the game
+                achievementOutbox.flush();
+                scoreSubmitter.flush();
+                savedGames.flushWrites();
+            }
+        }
+    }
+
+    /**
+     * @return how many operations are still queued anywhere
+     */
+    private int sample() {
+        int outboxPending = achievementOutbox.getPendingCount();
+        int submitterPending = scoreSubmitter.getPendingCount();
+        int savesPending = savedGames.getPendingWriteCount();
+        Dictionary schedulerStats = scheduler.getStats();
+        int schedulerQueued = (Integer) schedulerStats.get("interactive_queued")
+                + (Integer) schedulerStats.get("normal_queued")
+                + (Integer) schedulerStats.get("background_queued");
+        int backendInFlight = (Integer) backend.getStats().get("in_flight");
+        // Calls waiting for a retry are not at the backend
+        if (guard != null) backendInFlight = Math.max(backendInFlight, guard.getInFlightCount());
+
+        maxOutboxPending = Math.max(maxOutboxPending, outboxPending);
+        maxSubmitterPending = Math.max(maxSubmitterPending, submitterPending);
+        maxSavesPending = Math.max(maxSavesPending, savesPending);
+        maxSchedulerQueued = Math.max(maxSchedulerQueued, schedulerQueued);
+        maxDispatcherQueued = Math.max(maxDispatcherQueued, EventDispatcher.getQueuedCount());
+        maxBackendInFlight = Math.max(maxBackendInFlight, backendInFlight);
+        maxHeap = Math.max(maxHeap, usedHeap());
+
+        return outboxPending + submitterPending + savesPending + backendInFlight;
+    }
+
+    private void finish(boolean drained) {
+        if (finished) return;
+        finished = true;
+        ticker.shutdown();
+        long finishedAt = SystemClock.elapsedRealtime();
+
+        Dictionary backendStats = backend.getStats();
+        long totalMs = finishedAt - startedAt;
+        long calls = (Long) backendStats.get("calls");
+
+        achievementOutbox.discard();
+        scoreSubmitter.discard();
+        savedGames.setBackend(null);
+        // Fails whatever is still waiting, which also frees the scheduler's slots
+        backend.shutdown();
+        savedGames.forgetCachedSnapshots(FakeGamesBackend.ACCOUNT_ID);
+        System.gc();
+
+        Dictionary report = new Dictionary();
+        report.put("drained", drained);
+        report.put("duration_ms", finishedAt - startedAt);
+        report.put("drain_ms", drainStartedAt != 0 ? finishedAt - drainStartedAt : -1L);
+        report.put("unlocks", unlocks);
+        report.put("increments", increments);
+        report.put("submits", submits);
+        report.put("saves", saves);
+        report.put("requests_per_second", totalMs > 0 ? (unlocks + increments + submits + saves) * 1000.0 / totalMs : 0.0);
+        report.put("backend_calls_per_second", totalMs > 0 ? calls * 1000.0 / totalMs : 0.0);
+        report.put("backend", backendStats);
+        if (guard != null) report.put("task_guard", guard.getStats());
+        report.put("max_outbox_pending", maxOutboxPending);
+        report.put("max_submitter_pending", maxSubmitterPending);
+        report.put("max_saves_pending", maxSavesPending);
+        report.put("max_scheduler_queued", maxSchedulerQueued);
+        report.put("max_dispatcher_queued", maxDispatcherQueued);
+        report.put("max_backend_in_flight", maxBackendInFlight);
+        report.put("heap_start_bytes", heapAtStart);
+        report.put("heap_max_bytes", maxHeap);
+        report.put("heap_growth_bytes", usedHeap() - heapAtStart);
+
+        GpgsLog.i("LoadGenerator: completed ", report);
+        EventDispatcher.send(instance_id, GODOT_CALLBACK_FUNCTIONS[0], new Object[] { report });
+    }
+
+    private static long due(double perSecond, long elapsedMs) {
+        return (long) (perSecond * elapsedMs / 1000);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static Number number(Dictionary config, String key, Number defaultValue) {
+        Object value = config != null ? config.get(key) : null;
+        return value instanceof Number ? (Number) value : defaultValue;
+    }
+}
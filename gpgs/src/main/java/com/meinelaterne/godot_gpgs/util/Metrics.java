@@ -0,0 +1,191 @@
+package com.meinelaterne.godot_gpgs.util;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+
+import org.godotengine.godot.Dictionary;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Latency histograms and outcome counters for every Play Games operation, plus byte counters for
+ * snapshot and image traffic. All storage is allocated up front; recording a sample only updates
+ * primitive arrays.
+ *
+ * Latencies go into power of two buckets: bucket 0 counts samples below 1 ms, bucket i counts
+ * samples from 2^(i-1) up to 2^i ms, and the last bucket everything slower.
+ */
+public class Metrics {
+
+    public static final int OP_SIGN_IN = 0;
+    public static final int OP_GET_CURRENT_PLAYER = 1;
+    public static final int OP_SNAPSHOT_OPEN = 2;
+    public static final int OP_SNAPSHOT_COMMIT = 3;
+    public static final int OP_SNAPSHOT_READ = 4;
+    public static final int OP_IMAGE_LOAD = 5;
+    // Sign-ins answered from the last signed in account, kept apart so they do not hide the
+    // latency of real ones
+    public static final int OP_SIGN_IN_CACHED = 6;
+    public static final int OP_ACHIEVEMENT_UNLOCK = 7;
+    public static final int OP_ACHIEVEMENT_INCREMENT = 8;
+    public static final int OP_SCORE_SUBMIT = 9;
+    public static final int OP_SNAPSHOT_LIST = 10;
+    public static final int OP_ACHIEVEMENT_LOAD = 11;
+
+    public static final int OUTCOME_SUCCESS = 0;
+    public static final int OUTCOME_FAILURE = 1;
+    public static final int OUTCOME_TIMEOUT = 2;
+
+    public static final int BYTES_SNAPSHOT_READ = 0;
+    public static final int BYTES_SNAPSHOT_WRITTEN = 1;
+    public static final int BYTES_IMAGE_STORED = 2;
+
+    private static final String[] OPERATION_NAMES = new String[] {
+            "sign_in", "get_current_player", "snapshot_open", "snapshot_commit", "snapshot_read", "image_load", "sign_in_cached",
+            "achievement_unlock", "achievement_increment", "score_submit", "snapshot_list", "achievement_load",
+    };
+    private static final String[] OUTCOME_NAMES = new String[] { "success", "failure", "timeout" };
+    private static final String[] BYTE_COUNTER_NAMES = new String[] {
+            "snapshot_bytes_read", "snapshot_bytes_written", "image_bytes_stored",
+    };
+
+    private static final int BUCKETS = 20;
+
+    private static final Object LOCK = new Object();
+    private static final long[][] histograms = new long[OPERATION_NAMES.length][BUCKETS];
+    private static final long[][] outcomes = new long[OPERATION_NAMES.length][OUTCOME_NAMES.length];
+    private static final long[] totalMs = new long[OPERATION_NAMES.length];
+    private static final long[] maxMs = new long[OPERATION_NAMES.length];
+    private static final long[] bytes = new long[BYTE_COUNTER_NAMES.length];
+    private static long resetAt = SystemClock.elapsedRealtime();
+
+    private Metrics() {
+    }
+
+    /**
+     * @return the start time to pass to record()
+     */
+    public static long start() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * @param operation one of the OP_ constants
+     * @param startedAt value returned by start()
+     * @param outcome   one of the OUTCOME_ constants
+     */
+    public static void record(int operation, long startedAt, int outcome) {
+        long elapsed = Math.max(0, SystemClock.elapsedRealtime() - startedAt);
+        int bucket = elapsed == 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(elapsed));
+        synchronized (LOCK) {
+            histograms[operation][bucket]++;
+            outcomes[operation][outcome]++;
+            totalMs[operation] += elapsed;
+            if (elapsed > maxMs[operation]) maxMs[operation] = elapsed;
+        }
+    }
+
+    /**
+     * @param counter one of the BYTES_ constants
+     */
+    public static void addBytes(int counter, long count) {
+        synchronized (LOCK) {
+            bytes[counter] += count;
+        }
+    }
+
+    /**
+     * Records the latency and outcome of a task once it completes.
+     *
+     * @return task, for chaining
+     */
+    public static <T> Task<T> track(final int operation, Task<T> task) {
+        final long startedAt = start();
+        return task.addOnCompleteListener(new OnCompleteListener<T>() {
+            @Override
+            public void onComplete(@NonNull Task<T> task) {
+                record(operation, startedAt, outcomeOf(task));
+            }
+        });
+    }
+
+    public static int outcomeOf(Task<?> task) {
+        if (task.isSuccessful()) return OUTCOME_SUCCESS;
+        return task.getException() instanceof TimeoutException ? OUTCOME_TIMEOUT : OUTCOME_FAILURE;
+    }
+
+    /**
+     * @param reset start a new reporting period after reading, e.g. once per session
+     * @return per operation: count, success, failure, timeout, mean_ms, max_ms, p50_ms, p90_ms,
+     *         p99_ms and buckets; the byte counters; and period_ms, the time since the last reset
+     */
+    public static Dictionary getMetrics(boolean reset) {
+        Dictionary metrics = new Dictionary();
+        synchronized (LOCK) {
+            for (int op = 0; op < OPERATION_NAMES.length; op++) {
+                metrics.put(OPERATION_NAMES[op], operationToDictionary(op));
+            }
+            for (int i = 0; i < BYTE_COUNTER_NAMES.length; i++) {
+                metrics.put(BYTE_COUNTER_NAMES[i], bytes[i]);
+            }
+            long now = SystemClock.elapsedRealtime();
+            metrics.put("period_ms", now - resetAt);
+
+            if (reset) {
+                for (int op = 0; op < OPERATION_NAMES.length; op++) {
+                    Arrays.fill(histograms[op], 0);
+                    Arrays.fill(outcomes[op], 0);
+                }
+                Arrays.fill(totalMs, 0);
+                Arrays.fill(maxMs, 0);
+                Arrays.fill(bytes, 0);
+                resetAt = now;
+            }
+        }
+        return metrics;
+    }
+
+    private static Dictionary operationToDictionary(int op) {
+        long count = 0;
+        for (long bucketCount : histograms[op]) {
+            count += bucketCount;
+        }
+
+        Dictionary dictionary = new Dictionary();
+        dictionary.put("count", count);
+        for (int outcome = 0; outcome < OUTCOME_NAMES.length; outcome++) {
+            dictionary.put(OUTCOME_NAMES[outcome], outcomes[op][outcome]);
+        }
+        dictionary.put("mean_ms", count > 0 ? (double) totalMs[op] / count : 0.0);
+        dictionary.put("max_ms", maxMs[op]);
+        dictionary.put("p50_ms", percentile(op, count, 0.50));
+        dictionary.put("p90_ms", percentile(op, count, 0.90));
+        dictionary.put("p99_ms", percentile(op, count, 0.99));
+
+        Object[] buckets = new Object[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = histograms[op][i];
+        }
+        dictionary.put("buckets", buckets);
+        return dictionary;
+    }
+
+    /**
+     * @return the upper bound of the bucket the percentile falls into, capped at the maximum
+     */
+    private static long percentile(int op, long count, double fraction) {
+        if (count == 0) return 0;
+        long rank = (long) Math.ceil(count * fraction);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += histograms[op][i];
+            if (seen >= rank) return Math.min(maxMs[op], 1L << i);
+        }
+        return maxMs[op];
+    }
+}
@@ -1,46 +1,273 @@
 package com.meinelaterne.godot_gpgs.util;
 
+import android.annotation.TargetApi;
 import android.app.Activity;
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.net.ConnectivityManager;
+import android.net.NetworkCapabilities;
 import android.net.NetworkInfo;
-import android.util.Log;
+import android.net.NetworkRequest;
+import android.os.Build;
+import android.telephony.TelephonyManager;
 
+import org.godotengine.godot.Dictionary;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Keeps the current connectivity in a snapshot that is updated when the system reports a change,
+ * so the getters never call into ConnectivityManager. On API 24 and newer the snapshot is built
+ * from the capabilities the default network callback reports, on API 23 from those of the active
+ * network whenever a network changes, and before that from the CONNECTIVITY_ACTION broadcast.
+ */
 public class Network {
 
+    private static final String[] GODOT_CALLBACK_FUNCTIONS = new String[] {
+            "_on_play_game_services_network_changed", //(Dictionary state)
+    };
+
+    /**
+     * Connectivity at one point in time. Never modified, a change replaces the whole snapshot.
+     */
+    public static final class State {
+        public static final State OFFLINE = new State(false, false, false, false, false, 0, 0);
+
+        public final boolean online;
+        public final boolean wifi;
+        public final boolean mobile;
+        public final boolean metered;
+        public final boolean roaming;
+        public final int downstreamKbps;
+        public final int upstreamKbps;
+
+        State(boolean online, boolean wifi, boolean mobile, boolean metered, boolean roaming, int downstreamKbps, int upstreamKbps) {
+            this.online = online;
+            this.wifi = wifi;
+            this.mobile = mobile;
+            this.metered = metered;
+            this.roaming = roaming;
+            this.downstreamKbps = downstreamKbps;
+            this.upstreamKbps = upstreamKbps;
+        }
+
+        /**
+         * Bandwidth estimates change all the time and are not counted as a transition.
+         */
+        boolean sameConnectivity(State other) {
+            return online == other.online
+                    && wifi == other.wifi
+                    && mobile == other.mobile
+                    && metered == other.metered
+                    && roaming == other.roaming;
+        }
+
+        public Dictionary toDictionary() {
+            Dictionary dictionary = new Dictionary();
+            dictionary.put("online", online);
+            dictionary.put("wifi", wifi);
+            dictionary.put("mobile", mobile);
+            dictionary.put("metered", metered);
+            dictionary.put("roaming", roaming);
+            dictionary.put("downstream_kbps", downstreamKbps);
+            dictionary.put("upstream_kbps", upstreamKbps);
+            return dictionary;
+        }
+    }
+
+    /**
+     * Told about every transition, e.g. to resume work that waited for a connection.
+     */
+    public interface Listener {
+        void onNetworkChanged(State previous, State current);
+    }
+
     private Activity activity = null;
     private ConnectivityManager connectivityManager = null;
+    private TelephonyManager telephonyManager = null;
+    private int instance_id = 0;
+
+    private volatile State state = State.OFFLINE;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
 
-    private static final String TAG = "godot";
+    // Only one of these is registered, depending on the API level
+    private ConnectivityManager.NetworkCallback networkCallback = null;
+    private BroadcastReceiver connectivityReceiver = null;
+    // The default network as last reported; only touched on the callback thread
+    private android.net.Network defaultNetwork = null;
 
-    public Network(final Activity activity) {
+    public Network(final Activity activity, int instance_id) {
         this.activity = activity;
+        this.instance_id = instance_id;
 
         connectivityManager = (ConnectivityManager) activity.getSystemService(Context.CONNECTIVITY_SERVICE);
+        telephonyManager = (TelephonyManager) activity.getSystemService(Context.TELEPHONY_SERVICE);
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            state = readState();
+            registerDefaultNetworkCallback();
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            state = readState();
+            registerNetworkCallback();
+        } else {
+            state = readLegacyState();
+            connectivityReceiver = new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    update(readLegacyState());
+                }
+            };
+            activity.getApplicationContext().registerReceiver(connectivityReceiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+        }
+
+        GpgsLog.d("GPGS: Network init");
+    }
 
-        Log.d(TAG, "GPGS: Network init");
+    public void close() {
+        if (networkCallback != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            connectivityManager.unregisterNetworkCallback(networkCallback);
+            networkCallback = null;
+        }
+        if (connectivityReceiver != null) {
+            activity.getApplicationContext().unregisterReceiver(connectivityReceiver);
+            connectivityReceiver = null;
+        }
+        listeners.clear();
     }
 
-    private boolean isConnected(int type) {
-        NetworkInfo networkInfo = connectivityManager.getNetworkInfo(type);
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
 
-        if (networkInfo != null)
-            return networkInfo.isConnected();
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
 
-        return false;
+    public State getState() {
+        return state;
     }
 
     public boolean isOnline() {
-        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
-
-        return (networkInfo != null && networkInfo.isConnected());
+        return state.online;
     }
 
     public boolean isWifiConnected() {
-        return isConnected(ConnectivityManager.TYPE_WIFI);
+        return state.wifi;
     }
 
     public boolean isMobileConnected() {
-        return isConnected(ConnectivityManager.TYPE_MOBILE);
+        return state.mobile;
+    }
+
+    @TargetApi(Build.VERSION_CODES.N)
+    private void registerDefaultNetworkCallback() {
+        networkCallback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(android.net.Network network) {
+                defaultNetwork = network;
+                // Before API 26 onCapabilitiesChanged() does not always follow
+                update(fromCapabilities(connectivityManager.getNetworkCapabilities(network)));
+            }
+
+            @Override
+            public void onLost(android.net.Network network) {
+                // A network that was replaced as the default is not a loss of connectivity
+                if (!network.equals(defaultNetwork)) return;
+                defaultNetwork = null;
+                update(State.OFFLINE);
+            }
+
+            @Override
+            public void onCapabilitiesChanged(android.net.Network network, NetworkCapabilities capabilities) {
+                defaultNetwork = network;
+                update(fromCapabilities(capabilities));
+            }
+        };
+        connectivityManager.registerDefaultNetworkCallback(networkCallback);
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private void registerNetworkCallback() {
+        networkCallback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(android.net.Network network) {
+                update(readState());
+            }
+
+            @Override
+            public void onLost(android.net.Network network) {
+                // The lost network can still be reported as the active one while this runs
+                update(network.equals(connectivityManager.getActiveNetwork()) ? State.OFFLINE : readState());
+            }
+
+            @Override
+            public void onCapabilitiesChanged(android.net.Network network, NetworkCapabilities capabilities) {
+                update(readState());
+            }
+        };
+        NetworkRequest request = new NetworkRequest.Builder()
+                .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                .build();
+        connectivityManager.registerNetworkCallback(request, networkCallback);
+    }
+
+    /**
+     * Queries ConnectivityManager for the active network. Only called at start and when the
+     * system reports a change.
+     */
+    @TargetApi(Build.VERSION_CODES.M)
+    private State readState() {
+        android.net.Network active = connectivityManager.getActiveNetwork();
+        if (active == null) return State.OFFLINE;
+        return fromCapabilities(connectivityManager.getNetworkCapabilities(active));
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private State fromCapabilities(NetworkCapabilities capabilities) {
+        if (capabilities == null || !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET))
+            return State.OFFLINE;
+
+        boolean wifi = capabilities.hasTransport(NetworkCapabilities.TRANSPORT_WIFI);
+        boolean mobile = capabilities.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR);
+        boolean metered = !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED);
+        boolean roaming;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P)
+            roaming = !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_ROAMING);
+        else
+            roaming = mobile && telephonyManager != null && telephonyManager.isNetworkRoaming();
+        return new State(true, wifi, mobile, metered, roaming,
+                capabilities.getLinkDownstreamBandwidthKbps(), capabilities.getLinkUpstreamBandwidthKbps());
+    }
+
+    /**
+     * Before API 23 there is no way to get the capabilities of the active network, so NetworkInfo
+     * is still used there. Bandwidth is not known.
+     */
+    @SuppressWarnings("deprecation")
+    private State readLegacyState() {
+        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+        if (networkInfo == null || !networkInfo.isConnected()) return State.OFFLINE;
+
+        return new State(true,
+                networkInfo.getType() == ConnectivityManager.TYPE_WIFI,
+                networkInfo.getType() == ConnectivityManager.TYPE_MOBILE,
+                connectivityManager.isActiveNetworkMetered(),
+                networkInfo.isRoaming(),
+                0, 0);
+    }
+
+    private synchronized void update(State current) {
+        State previous = state;
+        state = current;
+        if (previous.sameConnectivity(current)) return;
+
+        if (GpgsLog.isEnabled(GpgsLog.DEBUG)) GpgsLog.d("GPGS: Network changed, online = " + current.online + ", metered = ", current.metered);
+        EventDispatcher.send(instance_id, GODOT_CALLBACK_FUNCTIONS[0], new Object[] { current.toDictionary() });
+        for (Listener listener : listeners) {
+            listener.onNetworkChanged(previous, current);
+        }
     }
 }
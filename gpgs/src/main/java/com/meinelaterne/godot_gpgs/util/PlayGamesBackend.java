@@ -0,0 +1,240 @@
+package com.meinelaterne.godot_gpgs.util;
+
+import android.app.Activity;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.common.images.ImageManager;
+import com.google.android.gms.games.AnnotatedData;
+import com.google.android.gms.games.Player;
+import com.google.android.gms.games.SnapshotsClient;
+import com.google.android.gms.games.achievement.AchievementBuffer;
+import com.google.android.gms.games.leaderboard.ScoreSubmissionData;
+import com.google.android.gms.games.snapshot.Snapshot;
+import com.google.android.gms.games.snapshot.SnapshotMetadata;
+import com.google.android.gms.games.snapshot.SnapshotMetadataBuffer;
+import com.google.android.gms.games.snapshot.SnapshotMetadataChange;
+import com.google.android.gms.tasks.CancellationToken;
+import com.google.android.gms.tasks.Continuation;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+/**
+ * {@link GamesBackend} on top of the Play Games clients of a signed in account.
+ */
+public class PlayGamesBackend implements GamesBackend {
+
+    private final Activity activity;
+    private final GamesSession session;
+    private final SnapshotConflictResolver conflictResolver;
+
+    /**
+     * @param conflictResolver opens snapshots and resolves their conflicts
+     */
+    public PlayGamesBackend(Activity activity, GamesSession session, SnapshotConflictResolver conflictResolver) {
+        this.activity = activity;
+        this.session = session;
+        this.conflictResolver = conflictResolver;
+    }
+
+    @Override
+    public String getAccountID() {
+        return session.getAccount().getId();
+    }
+
+    @Override
+    public Task<CurrentPlayer> loadCurrentPlayer() {
+        return session.getPlayersClient().getCurrentPlayer()
+                .continueWith(new Continuation<Player, CurrentPlayer>() {
+                    @Override
+                    public CurrentPlayer then(@NonNull Task<Player> task) throws Exception {
+                        return CurrentPlayer.from(task.getResult());
+                    }
+                });
+    }
+
+    @Override
+    public Task<Integer> loadAchievements(boolean forceReload) {
+        return Metrics.track(Metrics.OP_ACHIEVEMENT_LOAD, session.getAchievementsClient().load(forceReload))
+                .continueWith(new Continuation<AnnotatedData<AchievementBuffer>, Integer>() {
+                    @Override
+                    public Integer then(@NonNull Task<AnnotatedData<AchievementBuffer>> task) throws Exception {
+                        AchievementBuffer buffer = task.getResult().get();
+                        try {
+                            return buffer.getCount();
+                        } finally {
+                            buffer.release();
+                        }
+                    }
+                });
+    }
+
+    @Override
+    public Task<Void> unlockAchievement(String achievementID) {
+        return Metrics.track(Metrics.OP_ACHIEVEMENT_UNLOCK, session.getAchievementsClient().unlockImmediate(achievementID));
+    }
+
+    @Override
+    public Task<Boolean> incrementAchievement(String achievementID, int steps) {
+        return Metrics.track(Metrics.OP_ACHIEVEMENT_INCREMENT, session.getAchievementsClient().incrementImmediate(achievementID, steps));
+    }
+
+    @Override
+    public Task<Void> submitScore(String leaderboardID, long score) {
+        return Metrics.track(Metrics.OP_SCORE_SUBMIT, session.getLeaderboardsClient().submitScoreImmediate(leaderboardID, score))
+                .continueWith(new Continuation<ScoreSubmissionData, Void>() {
+                    @Override
+                    public Void then(@NonNull Task<ScoreSubmissionData> task) throws Exception {
+                        task.getResult();
+                        return null;
+                    }
+                });
+    }
+
+    @Override
+    public Task<List<SnapshotInfo>> listSnapshots(boolean forceReload) {
+        return Metrics.track(Metrics.OP_SNAPSHOT_LIST, session.getSnapshotsClient().load(forceReload))
+                .continueWith(SavedGames.SNAPSHOT_EXECUTOR, new Continuation<AnnotatedData<SnapshotMetadataBuffer>, List<SnapshotInfo>>() {
+                    @Override
+                    public List<SnapshotInfo> then(@NonNull Task<AnnotatedData<SnapshotMetadataBuffer>> task) throws Exception {
+                        SnapshotMetadataBuffer buffer = task.getResult().get();
+                        List<SnapshotInfo> snapshots = new ArrayList<>();
+                        try {
+                            for (SnapshotMetadata metadata : buffer) {
+                                snapshots.add(SnapshotInfo.from(metadata));
+                            }
+                        } finally {
+                            buffer.release();
+                        }
+                        return snapshots;
+                    }
+                });
+    }
+
+    @Override
+    public Task<SnapshotData> readSnapshot(String snapshotName, int conflictPolicy, final CancellationToken cancellationToken) {
+        final SnapshotsClient snapshotsClient = session.getSnapshotsClient();
+        return Metrics.track(Metrics.OP_SNAPSHOT_OPEN, conflictResolver.open(snapshotsClient, snapshotName, conflictPolicy))
+                .continueWith(SavedGames.SNAPSHOT_EXECUTOR, new Continuation<Snapshot, SnapshotData>() {
+                    @Override
+                    public SnapshotData then(@NonNull Task<Snapshot> task) throws Exception {
+                        Snapshot snapshot = task.getResult();
+                        try {
+                            if (isCancelled(cancellationToken)) throw new CancellationException("Snapshot read abandoned");
+
+                            long readStartedAt = Metrics.start();
+                            byte[] contents;
+                            try {
+                                contents = snapshot.getSnapshotContents().readFully();
+                            } catch (IOException e) {
+                                Metrics.record(Metrics.OP_SNAPSHOT_READ, readStartedAt, Metrics.OUTCOME_FAILURE);
+                                throw e;
+                            }
+                            Metrics.record(Metrics.OP_SNAPSHOT_READ, readStartedAt, Metrics.OUTCOME_SUCCESS);
+                            return new SnapshotData(SnapshotInfo.from(snapshot.getMetadata()), contents);
+                        } finally {
+                            // An open snapshot blocks further opens of the same name until closed
+                            snapshotsClient.discardAndClose(snapshot);
+                        }
+                    }
+                });
+    }
+
+    @Override
+    public Task<SnapshotInfo> writeSnapshot(String snapshotName, final byte[] contents, final String description,
+                                            final Bitmap coverImage, int conflictPolicy,
+                                            final CancellationToken cancellationToken) {
+        final SnapshotsClient snapshotsClient = session.getSnapshotsClient();
+        return Metrics.track(Metrics.OP_SNAPSHOT_OPEN, conflictResolver.open(snapshotsClient, snapshotName, conflictPolicy))
+                .continueWithTask(SavedGames.SNAPSHOT_EXECUTOR, new Continuation<Snapshot, Task<SnapshotMetadata>>() {
+                    @Override
+                    public Task<SnapshotMetadata> then(@NonNull Task<Snapshot> task) throws Exception {
+                        Snapshot snapshot = task.getResult();
+                        // Committing after the caller gave up could overwrite a newer save made since
+                        if (isCancelled(cancellationToken)) {
+                            snapshotsClient.discardAndClose(snapshot);
+                            throw new CancellationException("Snapshot write abandoned");
+                        }
+                        snapshot.getSnapshotContents().writeBytes(contents);
+
+                        SnapshotMetadataChange.Builder metadata = new SnapshotMetadataChange.Builder()
+                                .setDescription(description);
+                        if (coverImage != null) metadata.setCoverImage(coverImage);
+
+                        return Metrics.track(Metrics.OP_SNAPSHOT_COMMIT, snapshotsClient.commitAndClose(snapshot, metadata.build()));
+                    }
+                })
+                .continueWith(SavedGames.SNAPSHOT_EXECUTOR, new Continuation<SnapshotMetadata, SnapshotInfo>() {
+                    @Override
+                    public SnapshotInfo then(@NonNull Task<SnapshotMetadata> task) throws Exception {
+                        return SnapshotInfo.from(task.getResult());
+                    }
+                });
+    }
+
+    private static boolean isCancelled(CancellationToken cancellationToken) {
+        return cancellationToken != null && cancellationToken.isCancellationRequested();
+    }
+
+    @Override
+    public Task<Bitmap> loadImage(Uri uri) {
+        return loadImage(activity, uri);
+    }
+
+    /**
+     * Play Games images can be loaded without a signed in account, so this is also used while
+     * no backend is set.
+     */
+    public static Task<Bitmap> loadImage(final Activity activity, final Uri uri) {
+        final TaskCompletionSource<Bitmap> source = new TaskCompletionSource<>();
+        activity.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                ImageManager manager = ImageManager.create(activity);
+                manager.loadImage(new ImageManager.OnImageLoadedListener() {
+                    @Override
+                    public void onImageLoaded(Uri loaded, Drawable drawable, boolean b) {
+                        if (drawable == null) source.trySetException(new IOException("No image could be loaded for " + uri));
+                        else source.trySetResult(drawableToBitmap(drawable));
+                    }
+                }, uri);
+            }
+        });
+        return source.getTask();
+    }
+
+    private static Bitmap drawableToBitmap(Drawable drawable) {
+        Bitmap bitmap = null;
+
+        if (drawable instanceof BitmapDrawable) {
+            GpgsLog.d("drawableToBitmap(): drawable is instance of BitmapDrawable");
+            BitmapDrawable bitmapDrawable = (BitmapDrawable) drawable;
+            if (bitmapDrawable.getBitmap() != null) {
+                GpgsLog.d("drawableToBitmap(): bitmapDrawable is not null");
+                return bitmapDrawable.getBitmap();
+            }
+        }
+
+        GpgsLog.d("drawableToBitmap(): drawable is not an instance of BitmapDrawable or bitmapDrawable was null");
+        if (drawable.getIntrinsicWidth() <= 0 || drawable.getIntrinsicHeight() <= 0) {
+            bitmap = Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888); // Single color bitmap will be created of 1x1 pixel
+        } else {
+            bitmap = Bitmap.createBitmap(drawable.getIntrinsicWidth(), drawable.getIntrinsicHeight(), Bitmap.Config.ARGB_8888);
+        }
+
+        Canvas canvas = new Canvas(bitmap);
+        drawable.setBounds(0, 0, canvas.getWidth(), canvas.getHeight());
+        drawable.draw(canvas);
+        return bitmap;
+    }
+}
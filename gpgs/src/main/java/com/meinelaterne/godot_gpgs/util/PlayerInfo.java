@@ -1,8 +1,7 @@
 package com.meinelaterne.godot_gpgs.util;
 
 import android.app.Activity;
-
-import com.google.android.gms.games.Player;
+import android.net.Uri;
 
 public class PlayerInfo {
     private static final String TAG = "gpgs";
@@ -16,30 +15,26 @@ public class PlayerInfo {
     private int instance_id = 0;
 
     private Activity activity = null;
-    public Player player = null;
+    public CurrentPlayer player = null;
     private GodotCache imageCache;
+    // Told about every icon that was stored, so it can be shown at the next start
+    private GodotCache.OnImageCachedListener iconListener;
 
-    public PlayerInfo(Activity activity, int instance_id, Player player){
+    public PlayerInfo(Activity activity, int instance_id, CurrentPlayer player, GodotCache.OnImageCachedListener iconListener){
         this.activity = activity;
         this.instance_id = instance_id;
         this.player = player;
+        this.iconListener = iconListener;
         imageCache = new GodotCache(activity, instance_id);
     }
 
     public boolean requestPlayerIcon(boolean hiRes){
         if (player != null){
-            if (hiRes && player.hasHiResImage()){
-                imageCache.sendURIImage(
-                        player.getHiResImageUri(),
-                        player.getPlayerId()+"_hi_res_icon.png",
-                        GODOT_CALLBACK_FUNCTIONS[0],
-                        player.getPlayerId());
-            }else if (player.hasIconImage()){
-                imageCache.sendURIImage(
-                    player.getIconImageUri(),
-                    player.getPlayerId()+"_icon.png",
-                    GODOT_CALLBACK_FUNCTIONS[0],
-                    player.getPlayerId());
+            if (hiRes && player.hiResImageUri != null){
+                // Much larger than the icon; not worth paying roaming charges for
+                sendIcon(player.hiResImageUri, player.profile.playerID+"_hi_res_icon.png", WorkScheduler.NETWORK_NOT_ROAMING);
+            }else if (player.iconImageUri != null){
+                sendIcon(player.iconImageUri, player.profile.playerID+"_icon.png", WorkScheduler.NETWORK_ANY);
             }
 
             return true;
@@ -47,20 +42,59 @@ public class PlayerInfo {
         return false;
     }
 
+    /**
+     * Stores the icon in the image cache without telling Godot, so it is ready when requested.
+     */
+    public void cacheIcon(final GodotCache.OnImageCachedListener listener){
+        if (player == null || player.iconImageUri == null) {
+            listener.onImageCached(null, false);
+            return;
+        }
+        imageCache.cacheURIImage(player.iconImageUri, player.profile.playerID+"_icon.png",
+                WorkScheduler.PRIORITY_NORMAL, WorkScheduler.NETWORK_ANY, new GodotCache.OnImageCachedListener() {
+            @Override
+            public void onImageCached(String fileName, boolean stored) {
+                if (stored && iconListener != null) iconListener.onImageCached(fileName, true);
+                listener.onImageCached(fileName, stored);
+            }
+        });
+    }
+
+    private void sendIcon(Uri uri, String fileName, int constraint){
+        imageCache.cacheURIImage(uri, fileName, WorkScheduler.PRIORITY_NORMAL, constraint, new GodotCache.OnImageCachedListener() {
+            @Override
+            public void onImageCached(String fileName, boolean stored) {
+                if (!stored) {
+                    imageCache.sendImageFailed(player.profile.playerID, fileName);
+                    return;
+                }
+                EventDispatcher.send(instance_id, GODOT_CALLBACK_FUNCTIONS[0], new Object[] { player.profile.playerID, GodotCache.CACHE_FOLDER, fileName });
+                if (iconListener != null) iconListener.onImageCached(fileName, true);
+            }
+        });
+    }
+
+    /**
+     * Banners are large and only decorative, so they wait for an unmetered connection.
+     */
     public boolean requestPlayerBanner(boolean portrait){
         if (player != null){
             if (portrait){
                 imageCache.sendURIImage(
-                        player.getBannerImagePortraitUri(),
-                        player.getPlayerId()+"_banner_portrait.png",
+                        player.bannerPortraitUri,
+                        player.profile.playerID+"_banner_portrait.png",
+                        WorkScheduler.PRIORITY_BACKGROUND,
+                        WorkScheduler.NETWORK_UNMETERED,
                         GODOT_CALLBACK_FUNCTIONS[1],
-                        player.getPlayerId());
+                        player.profile.playerID);
             }else{
                 imageCache.sendURIImage(
-                        player.getBannerImageLandscapeUri(),
-                        player.getPlayerId()+"_banner_landscape.png",
+                        player.bannerLandscapeUri,
+                        player.profile.playerID+"_banner_landscape.png",
+                        WorkScheduler.PRIORITY_BACKGROUND,
+                        WorkScheduler.NETWORK_UNMETERED,
                         GODOT_CALLBACK_FUNCTIONS[1],
-                        player.getPlayerId());
+                        player.profile.playerID);
             }
             return true;
         }
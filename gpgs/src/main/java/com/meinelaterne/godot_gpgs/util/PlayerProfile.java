@@ -0,0 +1,129 @@
+package com.meinelaterne.godot_gpgs.util;
+
+import com.google.android.gms.games.Player;
+import com.google.android.gms.games.PlayerLevel;
+import com.google.android.gms.games.PlayerLevelInfo;
+
+import org.godotengine.godot.Dictionary;
+
+/**
+ * The fields of the signed in player that Godot reads, copied out of the Player once so they do
+ * not have to be looked up field by field.
+ */
+public class PlayerProfile {
+    // Reported while nobody is signed in
+    public static final PlayerProfile EMPTY = new PlayerProfile(null, null, null, 0, 0, 0, 0);
+
+    public final String playerID;
+    public final String displayName;
+    public final String title;
+    public final int level;
+    public final long xp;
+    public final long minXP;
+    public final long maxXP;
+
+    public PlayerProfile(String playerID, String displayName, String title, int level, long xp, long minXP, long maxXP) {
+        this.playerID = playerID != null ? playerID : "";
+        this.displayName = displayName != null ? displayName : "";
+        this.title = title != null ? title : "";
+        this.level = level;
+        this.xp = xp;
+        this.minXP = minXP;
+        this.maxXP = maxXP;
+    }
+
+    public static PlayerProfile from(Player player) {
+        PlayerLevelInfo levelInfo = player.getLevelInfo();
+        PlayerLevel currentLevel = levelInfo != null ? levelInfo.getCurrentLevel() : null;
+        return new PlayerProfile(
+                player.getPlayerId(),
+                player.getDisplayName(),
+                player.getTitle(),
+                currentLevel != null ? currentLevel.getLevelNumber() : 0,
+                levelInfo != null ? levelInfo.getCurrentXpTotal() : 0,
+                currentLevel != null ? currentLevel.getMinXp() : 0,
+                currentLevel != null ? currentLevel.getMaxXp() : 0);
+    }
+
+    /**
+     * @return the profile as journal fields, see {@link #fromRecord(String[])}
+     */
+    public String[] toRecord() {
+        return new String[] {
+                clean(playerID),
+                clean(displayName),
+                clean(title),
+                Integer.toString(level),
+                Long.toString(xp),
+                Long.toString(minXP),
+                Long.toString(maxXP) };
+    }
+
+    /**
+     * @return the profile stored with toRecord(), or null if the record is malformed
+     */
+    public static PlayerProfile fromRecord(String[] record) {
+        if (record.length < 7) return null;
+        try {
+            return new PlayerProfile(record[0], record[1], record[2],
+                    Integer.parseInt(record[3]),
+                    Long.parseLong(record[4]),
+                    Long.parseLong(record[5]),
+                    Long.parseLong(record[6]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param version  incremented by the caller every time the dictionary changes
+     * @param stale    true while the profile has not been confirmed by Play Games since the app
+     *                 started or the last sign-in failed
+     * @param iconPath path of the cached icon of the player relative to user://, or ""
+     */
+    public Dictionary toDictionary(int version, boolean stale, String iconPath) {
+        Dictionary dictionary = new Dictionary();
+        dictionary.put("version", version);
+        dictionary.put("stale", stale);
+        dictionary.put("icon_path", iconPath);
+        dictionary.put("player_id", playerID);
+        dictionary.put("display_name", displayName);
+        dictionary.put("title", title);
+        dictionary.put("level", level);
+        dictionary.put("xp", xp);
+        dictionary.put("min_xp", minXP);
+        dictionary.put("max_xp", maxXP);
+        return dictionary;
+    }
+
+    // Journal records are tab separated and newline terminated
+    private static String clean(String value) {
+        return value.replace('\t', ' ').replace('\n', ' ');
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof PlayerProfile)) return false;
+        PlayerProfile other = (PlayerProfile) o;
+        return level == other.level
+                && xp == other.xp
+                && minXP == other.minXP
+                && maxXP == other.maxXP
+                && playerID.equals(other.playerID)
+                && displayName.equals(other.displayName)
+                && title.equals(other.title);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = playerID.hashCode();
+        result = 31 * result + displayName.hashCode();
+        result = 31 * result + title.hashCode();
+        result = 31 * result + level;
+        result = 31 * result + (int) (xp ^ (xp >>> 32));
+        result = 31 * result + (int) (minXP ^ (minXP >>> 32));
+        result = 31 * result + (int) (maxXP ^ (maxXP >>> 32));
+        return result;
+    }
+}
@@ -3,31 +3,35 @@ package com.meinelaterne.godot_gpgs.util;
 import android.app.Activity;
 import android.content.Intent;
 import android.graphics.Bitmap;
-import android.util.Log;
+import android.os.Handler;
+import android.os.Looper;
 
 import androidx.annotation.NonNull;
 
-import com.google.android.gms.auth.api.signin.GoogleSignInAccount;
-import com.google.android.gms.games.Games;
 import com.google.android.gms.games.SnapshotsClient;
-import com.google.android.gms.games.snapshot.Snapshot;
 import com.google.android.gms.games.snapshot.SnapshotMetadata;
-import com.google.android.gms.games.snapshot.SnapshotMetadataChange;
 import com.google.android.gms.tasks.Continuation;
 import com.google.android.gms.tasks.OnCompleteListener;
-import com.google.android.gms.tasks.OnFailureListener;
 import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.android.gms.tasks.Task;
-
-import org.godotengine.godot.GodotLib;
+import com.google.android.gms.tasks.Tasks;
 
 import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
 
 public class SavedGames {
-    private static final String TAG = "gpgs";
-
     private static final String SNAPSHOT_NAME_PREFIX = "snapshot-";
     private static final int RC_SAVED_GAMES = 9009;
 
@@ -36,30 +40,157 @@ public class SavedGames {
             "_on_play_game_services_saved_game_loaded", //(String data, boolean loadedWithoutError)
             "_on_play_game_services_saved_game_ready_to_save", //(String snapshotName, String suggestedImagePath)
             "_on_play_game_services_saved_game_saved", //(boolean savedWithoutError)
+            "_on_play_game_services_saved_game_loaded_bytes", //(PoolByteArray data, boolean loadedWithoutError)
+            "_on_play_game_services_saved_games_listed", //(int count, boolean listedWithoutError)
+            "_on_play_game_services_saved_game_changed", //(String snapshotName)
     };
 
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Snapshot data is compressed and decompressed here rather than on the UI thread
+    static final Executor SNAPSHOT_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    /**
+     * How new saves are stored. Replaced as a whole, so a write never sees half of a change.
+     */
+    private static class Compression {
+        final boolean useContainer;
+        final int codec;
+        final int level;
+
+        Compression(boolean useContainer, int codec, int level) {
+            this.useContainer = useContainer;
+            this.codec = codec;
+            this.level = level;
+        }
+
+        byte[] encode(byte[] data) {
+            return useContainer ? SnapshotCodec.encode(data, codec, level) : data;
+        }
+    }
+
+    /**
+     * The latest payload for a snapshot that has not been committed yet, and how many write
+     * requests it stands for.
+     */
+    private static class PendingWrite {
+        byte[] data;
+        String description;
+        String imageFileName;
+        // Raw RGBA cover image, used instead of imageFileName when set
+        byte[] coverPixels;
+        int coverWidth;
+        int coverHeight;
+        int callers = 0;
+        Runnable commit;
+    }
+
     private Activity activity = null;
-    private int instance_id = 0;
-    private GoogleSignInAccount signedInAccount = null;
+    private volatile int instance_id = 0;
+    private GamesSession session = null;
+    private GamesBackend backend = null;
 
-    private SnapshotsClient snapshotsClient;
     private boolean savingFile = false;
-    private int conflictResolutionPolicy = SnapshotsClient.RESOLUTION_POLICY_MOST_RECENTLY_MODIFIED;
-    private GodotCache imageCache;
+    private volatile int conflictResolutionPolicy = SnapshotsClient.RESOLUTION_POLICY_MOST_RECENTLY_MODIFIED;
+
+    // Set on the Godot thread, read on SNAPSHOT_EXECUTOR
+    private volatile Compression compression = new Compression(false, SnapshotCodec.CODEC_DEFLATE, Deflater.DEFAULT_COMPRESSION);
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Map<String, PendingWrite> pendingWrites = new HashMap<>();
+    private final Set<String> writesInFlight = new HashSet<>();
+    private long writeQuietPeriodMs = 0;
 
-    public SavedGames(Activity activity, GoogleSignInAccount signedInAccount, int instance_id) {
-        this.signedInAccount = signedInAccount;
+    private volatile GodotCache imageCache;
+    private final CoverImageLoader coverImageLoader = new CoverImageLoader();
+    private SnapshotCache snapshotCache;
+    private WorkScheduler scheduler = WorkScheduler.getInstance();
+    private SnapshotConflictResolver conflictResolver;
+    private final SnapshotList snapshotList = new SnapshotList();
+
+    public SavedGames(Activity activity, int instance_id) {
         this.activity = activity;
         this.instance_id = instance_id;
         imageCache = new GodotCache(activity, instance_id);
+        snapshotCache = SnapshotCache.getInstance(activity);
+        conflictResolver = new SnapshotConflictResolver(instance_id, SNAPSHOT_EXECUTOR, new SnapshotConflictResolver.PayloadCodec() {
+            @Override
+            public byte[] decode(byte[] stored) throws IOException {
+                return SnapshotCodec.decode(stored);
+            }
+
+            @Override
+            public byte[] encode(byte[] data) {
+                return compression.encode(data);
+            }
+        });
+    }
+
+    /**
+     * @param session used for the saved games UI and to ask for the cover image limit
+     */
+    public void setSession(GamesSession session) {
+        this.session = session;
+        if (session == null) return;
+
+        session.getSnapshotsClient().getMaxCoverImageSize()
+                .addOnSuccessListener(new OnSuccessListener<Integer>() {
+                    @Override
+                    public void onSuccess(Integer maxBytes) {
+                        if (maxBytes != null) coverImageLoader.setServiceLimit(maxBytes);
+                    }
+                });
+    }
+
+    /**
+     * @param instance_id script that gets the saved games callbacks from now on
+     */
+    public void setInstanceID(int instance_id) {
+        this.instance_id = instance_id;
+        imageCache = new GodotCache(activity, instance_id);
+        conflictResolver.setInstanceID(instance_id);
+    }
+
+    /**
+     * @param backend the backend of the signed in account, or null once signed out
+     */
+    public void setBackend(GamesBackend backend) {
+        this.backend = backend;
+        snapshotList.clear();
+        // Nobody is waiting for them any more
+        cancelConflicts();
+    }
+
+    /**
+     * @param scheduler runs the commits instead of the shared WorkScheduler, e.g. for a load test
+     */
+    public void setScheduler(WorkScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Deletes the local copies of every save of an account. Runs after the snapshot work that is
+     * already queued, so a commit that is just finishing cannot put a copy back.
+     */
+    public void forgetCachedSnapshots(final String accountID) {
+        SNAPSHOT_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                snapshotCache.removeAccount(accountID);
+            }
+        });
+    }
+
+    public SnapshotConflictResolver getConflictResolver() {
+        return conflictResolver;
     }
 
     // If allowAddButton is true then depending on the user selection, a previous save can be overwritten or a new save can be created
     // If allowAddButton is false then depending on the user selection, a previous save can be loaded
     public void showSavedGamesUI(String title, boolean allowAddButton, boolean allowDelete, int maxSavedGamesToShow){
+        if (session == null) return;
         savingFile = allowAddButton;
-        snapshotsClient = Games.getSnapshotsClient(activity, signedInAccount);
-        Task<Intent> intentTask = snapshotsClient.getSelectSnapshotIntent(title, allowAddButton, allowDelete, maxSavedGamesToShow);
+        Task<Intent> intentTask = session.getSnapshotsClient().getSelectSnapshotIntent(title, allowAddButton, allowDelete, maxSavedGamesToShow);
 
         intentTask.addOnSuccessListener(new OnSuccessListener<Intent>() {
             @Override
@@ -78,115 +209,444 @@ public class SavedGames {
 
                 if (savingFile){
                     String suggestedImagePath = GodotCache.CACHE_FOLDER + "/" + snapshotName + "_img.png";
-                    GodotLib.calldeferred(instance_id, GODOT_CALLBACK_FUNCTIONS[2], new Object[] { snapshotName, suggestedImagePath });
+                    EventDispatcher.send(instance_id, GODOT_CALLBACK_FUNCTIONS[2], new Object[] { snapshotName, suggestedImagePath });
                 }else{
-                    Log.d(TAG, "Loading existing save. unique id: " + snapshotName);
-                    GodotLib.calldeferred(instance_id, GODOT_CALLBACK_FUNCTIONS[0], new Object[] { });
+                    GpgsLog.d("Loading existing save. unique id: ", snapshotName);
+                    EventDispatcher.send(instance_id, GODOT_CALLBACK_FUNCTIONS[0], new Object[] { });
                     requestLoadSnapshot(snapshotName);
                 }
             }else if (intent.hasExtra(SnapshotsClient.EXTRA_SNAPSHOT_NEW)){
                 // If the user selects to create a new saved game
                 if (savingFile){
-                    Log.d(TAG, "Creating new save");
+                    GpgsLog.d("Creating new save");
                     String snapshotName = SNAPSHOT_NAME_PREFIX + new BigInteger(281, new Random()).toString(13);
                     String suggestedImagePath = GodotCache.CACHE_FOLDER + "/" + snapshotName + "_img.png";
-                    GodotLib.calldeferred(instance_id, GODOT_CALLBACK_FUNCTIONS[2], new Object[] { snapshotName, suggestedImagePath });
+                    EventDispatcher.send(instance_id, GODOT_CALLBACK_FUNCTIONS[2], new Object[] { snapshotName, suggestedImagePath });
                 }
             }
         }
     }
 
-    public void requestWriteSnapshot(String snapshotName, final String data, final String description, final String imageFileName){
+    public void requestWriteSnapshot(String snapshotName, String data, String description, String imageFileName){
+        queueWrite(snapshotName, data.getBytes(UTF_8), description, imageFileName, null, 0, 0);
+    }
+
+    /**
+     * Same as requestWriteSnapshot() but takes the save as raw bytes (a PoolByteArray in Godot),
+     * so binary game state is stored without any conversion.
+     */
+    public void requestWriteSnapshotBytes(String snapshotName, byte[] data, String description, String imageFileName){
+        queueWrite(snapshotName, data, description, imageFileName, null, 0, 0);
+    }
+
+    /**
+     * Same as requestWriteSnapshotBytes() but takes the cover image as raw RGBA8 pixels
+     * (Image.get_data() in Godot), so it does not have to be saved as a PNG first.
+     */
+    public void requestWriteSnapshotWithImage(String snapshotName, byte[] data, String description, byte[] rgba, int width, int height){
+        queueWrite(snapshotName, data, description, null, rgba, width, height);
+    }
+
+    /**
+     * @param maxDimension longest edge of a cover image in pixels
+     * @param maxBytes     size of the decoded cover image in bytes, 0 for the Play Games limit
+     */
+    public void setCoverImageLimits(int maxDimension, int maxBytes){
+        coverImageLoader.setLimits(maxDimension, maxBytes);
+    }
+
+    /**
+     * @param quietPeriodMs how long a snapshot must go without new writes before it is committed.
+     *                      Writes that arrive in the meantime replace the pending payload.
+     */
+    public synchronized void setWriteQuietPeriod(int quietPeriodMs){
+        writeQuietPeriodMs = Math.max(0, quietPeriodMs);
+    }
+
+    /**
+     * Commits every pending write now, e.g. when the app is paused.
+     */
+    public synchronized void flushWrites(){
+        for (String snapshotName : new ArrayList<>(pendingWrites.keySet())) {
+            PendingWrite pending = pendingWrites.get(snapshotName);
+            handler.removeCallbacks(pending.commit);
+            commitPendingWrite(snapshotName);
+        }
+    }
+
+    public void requestLoadSnapshot(String snapshotName){
+        loadSnapshot(snapshotName, false);
+    }
+
+    /**
+     * Same as requestLoadSnapshot() but hands the save to Godot as raw bytes.
+     */
+    public void requestLoadSnapshotBytes(String snapshotName){
+        loadSnapshot(snapshotName, true);
+    }
+
+    /**
+     * Keeps only the latest payload per snapshot and commits it once the quiet period has passed.
+     * A snapshot is never committed twice at the same time; a write that arrives during a commit
+     * waits for it to finish.
+     */
+    private synchronized void queueWrite(final String snapshotName, byte[] data, String description, String imageFileName,
+                                         byte[] coverPixels, int coverWidth, int coverHeight){
+        if (backend == null) {
+            GpgsLog.d("requestWriteSnapshot(): not signed in");
+            sendSavedSnapshot(false, 1);
+            return;
+        }
+
+        PendingWrite pending = pendingWrites.get(snapshotName);
+        if (pending == null) {
+            pending = new PendingWrite();
+            pending.commit = new Runnable() {
+                @Override
+                public void run() {
+                    commitPendingWrite(snapshotName);
+                }
+            };
+            pendingWrites.put(snapshotName, pending);
+        } else {
+            GpgsLog.d("Replacing pending write for snapshot: ", snapshotName);
+            handler.removeCallbacks(pending.commit);
+        }
+        pending.data = data;
+        pending.description = description;
+        pending.imageFileName = imageFileName;
+        pending.coverPixels = coverPixels;
+        pending.coverWidth = coverWidth;
+        pending.coverHeight = coverHeight;
+        pending.callers++;
+
+        handler.postDelayed(pending.commit, writeQuietPeriodMs);
+    }
+
+    private synchronized void commitPendingWrite(final String snapshotName){
+        if (writesInFlight.contains(snapshotName)) return;
+
+        final PendingWrite pending = pendingWrites.remove(snapshotName);
+        if (pending == null) return;
+
+        writesInFlight.add(snapshotName);
+        // Saves are what the player is waiting for, so they never queue behind image downloads
+        scheduler.schedule(WorkScheduler.PRIORITY_INTERACTIVE, WorkScheduler.NETWORK_ANY, new Callable<Task<SnapshotInfo>>() {
+            @Override
+            public Task<SnapshotInfo> call() {
+                return writeSnapshot(snapshotName, pending);
+            }
+        });
+    }
+
+    private synchronized void onWriteComplete(String snapshotName, boolean savedWithoutError, int callers){
+        writesInFlight.remove(snapshotName);
+        sendSavedSnapshot(savedWithoutError, callers);
+
+        // Writes that came in during the commit go out once their quiet period is over
+        PendingWrite pending = pendingWrites.get(snapshotName);
+        if (pending != null) {
+            handler.removeCallbacks(pending.commit);
+            handler.postDelayed(pending.commit, writeQuietPeriodMs);
+        }
+    }
+
+    /**
+     * Every write request that was folded into a commit gets its own result callback.
+     */
+    private void sendSavedSnapshot(boolean savedWithoutError, int callers){
+        for (int i = 0; i < callers; i++) {
+            EventDispatcher.send(instance_id, GODOT_CALLBACK_FUNCTIONS[3], new Object[] { savedWithoutError });
+        }
+    }
+
+    private Task<SnapshotInfo> writeSnapshot(final String snapshotName, final PendingWrite pending){
+        final int callers = pending.callers;
+        final GamesBackend backend = this.backend;
 
-        if (snapshotsClient == null) {
-            snapshotsClient = Games.getSnapshotsClient(activity, signedInAccount);
+        if (backend == null) {
+            GpgsLog.d("requestWriteSnapshot(): not signed in");
+            onWriteComplete(snapshotName, false, callers);
+            return Tasks.forException(new IllegalStateException("Not signed in"));
         }
+        final String cacheKey = getCacheKey(backend, snapshotName);
 
-        snapshotsClient.open(snapshotName, true, conflictResolutionPolicy)
-                .addOnFailureListener(new OnFailureListener() {
+        // Encoding the payload and decoding the cover image stay off the calling thread
+        return Tasks.forResult(pending)
+                .continueWithTask(SNAPSHOT_EXECUTOR, new Continuation<PendingWrite, Task<SnapshotInfo>>() {
                     @Override
-                    public void onFailure(@NonNull Exception e) {
-                        Log.e(TAG, "ERROR while opening snapshot for saving: ", e);
-                        GodotLib.calldeferred(instance_id, GODOT_CALLBACK_FUNCTIONS[3], new Object[] { false });
+                    public Task<SnapshotInfo> then(@NonNull Task<PendingWrite> task) throws Exception {
+                        final byte[] contents = compression.encode(pending.data);
+                        Bitmap coverImage = getCoverImage(pending);
+
+                        return backend.writeSnapshot(snapshotName, contents, pending.description, coverImage, conflictResolutionPolicy, null)
+                                .continueWith(SNAPSHOT_EXECUTOR, new Continuation<SnapshotInfo, SnapshotInfo>() {
+                                    @Override
+                                    public SnapshotInfo then(@NonNull Task<SnapshotInfo> commit) throws Exception {
+                                        // Keep what was just written so the next load does not download it again
+                                        SnapshotInfo committed = commit.getResult();
+                                        Metrics.addBytes(Metrics.BYTES_SNAPSHOT_WRITTEN, contents.length);
+                                        snapshotCache.put(cacheKey, committed.lastModified, committed.progressValue, contents);
+                                        snapshotList.update(committed);
+                                        return committed;
+                                    }
+                                });
                     }
                 })
-                .continueWith(new Continuation<SnapshotsClient.DataOrConflict<Snapshot>, Object>() {
+                .addOnCompleteListener(new OnCompleteListener<SnapshotInfo>() {
                     @Override
-                    public Object then(@NonNull Task<SnapshotsClient.DataOrConflict<Snapshot>> task) throws Exception {
-                        Snapshot snapshot = task.getResult().getData();
-
-                        snapshot.getSnapshotContents().writeBytes(data.getBytes("UTF-8"));
-
-                        Bitmap coverImage = imageCache.getBitmap(imageFileName);
-                        SnapshotMetadataChange metadata;
-                        if (coverImage != null){
-                            metadata = new SnapshotMetadataChange.Builder()
-                                    .setCoverImage(coverImage)
-                                    .setDescription(description)
-                                    .build();
-                        }else{
-                            metadata = new SnapshotMetadataChange.Builder()
-                                    .setDescription(description)
-                                    .build();
-                        }
+                    public void onComplete(@NonNull Task<SnapshotInfo> task) {
+                        if (!task.isSuccessful())
+                            GpgsLog.e("ERROR while writing to snapshot for saving: ", task.getException());
+                        onWriteComplete(snapshotName, task.isSuccessful(), callers);
+                    }
+                });
+    }
+
+    /**
+     * Decodes the cover image at the size it is stored with, never at full resolution.
+     */
+    private Bitmap getCoverImage(PendingWrite pending){
+        if (pending.coverPixels != null)
+            return coverImageLoader.fromRGBA(pending.coverPixels, pending.coverWidth, pending.coverHeight);
+        if (pending.imageFileName == null || pending.imageFileName.isEmpty()) return null;
+        return coverImageLoader.load(imageCache.getFile(pending.imageFileName));
+    }
 
-                        snapshotsClient.commitAndClose(snapshot, metadata);
-                        return null;
+    private void loadSnapshot(final String snapshotName, final boolean binary){
+        final GamesBackend backend = this.backend;
+
+        if (backend == null) {
+            GpgsLog.d("requestLoadSnapshot(): not signed in");
+            sendLoadedSnapshot(null, false, binary);
+            return;
+        }
+        final String cacheKey = getCacheKey(backend, snapshotName);
+        // The cached version sent to Godot, if any
+        final SnapshotInfo[] served = new SnapshotInfo[1];
+
+        // The local Play Games listing is cheap but misses saves made on other devices since it
+        // was last synced. A cached copy of the version it lists is sent right away, without
+        // waiting for the network, and checked against the server afterwards; see revalidate().
+        backend.listSnapshots(false)
+                .continueWithTask(SNAPSHOT_EXECUTOR, new Continuation<List<SnapshotInfo>, Task<byte[]>>() {
+                    @Override
+                    public Task<byte[]> then(@NonNull Task<List<SnapshotInfo>> task) throws Exception {
+                        SnapshotInfo listed = task.isSuccessful() ? find(task.getResult(), snapshotName) : null;
+                        byte[] cached = listed != null ? snapshotCache.get(cacheKey, listed.lastModified, listed.progressValue) : null;
+                        if (cached == null) return downloadSnapshot(backend, snapshotName, cacheKey);
+
+                        GpgsLog.d("Loading snapshot from local cache: ", snapshotName);
+                        served[0] = listed;
+                        return Tasks.forResult(cached);
                     }
                 })
-                .addOnSuccessListener(new OnSuccessListener<Object>() {
+                .continueWith(SNAPSHOT_EXECUTOR, new Continuation<byte[], byte[]>() {
                     @Override
-                    public void onSuccess(Object s) {
-                        GodotLib.calldeferred(instance_id, GODOT_CALLBACK_FUNCTIONS[3], new Object[] { true });
+                    public byte[] then(@NonNull Task<byte[]> task) throws Exception {
+                        // Plain saves and containers are both accepted
+                        return SnapshotCodec.decode(task.getResult());
                     }
                 })
-                .addOnFailureListener(new OnFailureListener() {
+                .addOnCompleteListener(new OnCompleteListener<byte[]>() {
                     @Override
-                    public void onFailure(@NonNull Exception e) {
-                        Log.e(TAG, "ERROR while writing to snapshot for saving: ", e);
-                        GodotLib.calldeferred(instance_id, GODOT_CALLBACK_FUNCTIONS[3], new Object[] { false });
+                    public void onComplete(@NonNull Task<byte[]> task) {
+                        if (task.isSuccessful()) {
+                            sendLoadedSnapshot(task.getResult(), true, binary);
+                            if (served[0] != null) revalidate(backend, snapshotName, cacheKey, served[0]);
+                        } else {
+                            GpgsLog.e("ERROR while opening snapshot for loading: ", task.getException());
+                            sendLoadedSnapshot(null, false, binary);
+                        }
                     }
                 });
     }
 
-    public void requestLoadSnapshot(String snapshotName){
-
-        if (snapshotsClient == null) {
-            snapshotsClient = Games.getSnapshotsClient(activity, signedInAccount);
-        }
-
-        snapshotsClient.open(snapshotName, true, conflictResolutionPolicy)
-                .addOnFailureListener(new OnFailureListener() {
+    /**
+     * Checks a save that was sent from the local cache against the server listing. If another
+     * device has saved since, the newer version is downloaded into the cache and Godot gets
+     * _on_play_game_services_saved_game_changed, so loading the save again returns it at once.
+     */
+    private void revalidate(final GamesBackend backend, final String snapshotName, final String cacheKey, final SnapshotInfo served){
+        backend.listSnapshots(true)
+                .continueWithTask(SNAPSHOT_EXECUTOR, new Continuation<List<SnapshotInfo>, Task<Boolean>>() {
                     @Override
-                    public void onFailure(@NonNull Exception e) {
-                        Log.e(TAG, "ERROR while opening snapshot for loading: ", e);
-                        GodotLib.calldeferred(instance_id, GODOT_CALLBACK_FUNCTIONS[1], new Object[] { "", false });
+                    public Task<Boolean> then(@NonNull Task<List<SnapshotInfo>> task) throws Exception {
+                        SnapshotInfo current = find(task.getResult(), snapshotName);
+                        if (current == null || (current.lastModified == served.lastModified && current.progressValue == served.progressValue))
+                            return Tasks.forResult(false);
+
+                        return downloadSnapshot(backend, snapshotName, cacheKey)
+                                .continueWith(new Continuation<byte[], Boolean>() {
+                                    @Override
+                                    public Boolean then(@NonNull Task<byte[]> task) throws Exception {
+                                        task.getResult();
+                                        return true;
+                                    }
+                                });
                     }
                 })
-                .continueWith(new Continuation<SnapshotsClient.DataOrConflict<Snapshot>, String>() {
+                .addOnCompleteListener(new OnCompleteListener<Boolean>() {
+                    @Override
+                    public void onComplete(@NonNull Task<Boolean> task) {
+                        if (!task.isSuccessful()) {
+                            GpgsLog.d("Cached snapshot could not be checked against the server: ", snapshotName);
+                        } else if (task.getResult()) {
+                            GpgsLog.d("Cached snapshot is outdated: ", snapshotName);
+                            EventDispatcher.send(instance_id, GODOT_CALLBACK_FUNCTIONS[6], new Object[] { snapshotName });
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Loads the metadata of all saves of the signed in player. Once loaded, the listing is served
+     * from memory until forceReload is true or the account changes. Read it with
+     * getSnapshotListPage().
+     */
+    public void requestSnapshotList(boolean forceReload){
+        if (!forceReload && snapshotList.isLoaded()) {
+            EventDispatcher.send(instance_id, GODOT_CALLBACK_FUNCTIONS[5], new Object[] { snapshotList.size(), true });
+            return;
+        }
+        if (backend == null) {
+            GpgsLog.d("requestSnapshotList(): not signed in");
+            EventDispatcher.send(instance_id, GODOT_CALLBACK_FUNCTIONS[5], new Object[] { 0, false });
+            return;
+        }
+
+        loadSnapshotList(forceReload)
+                .addOnCompleteListener(new OnCompleteListener<Integer>() {
                     @Override
-                    public String then(@NonNull Task<SnapshotsClient.DataOrConflict<Snapshot>> task) throws Exception {
-                        Snapshot snapshot = task.getResult().getData();
-
-                        try{
-                            return new String(snapshot.getSnapshotContents().readFully(),"UTF-8");
-                        } catch (IOException e){
-                            Log.e(TAG, "ERROR while opening snapshot for loading: ", e);
-                            GodotLib.calldeferred(instance_id, GODOT_CALLBACK_FUNCTIONS[1], new Object[] { "", false });
+                    public void onComplete(@NonNull Task<Integer> task) {
+                        if (task.isSuccessful()) {
+                            EventDispatcher.send(instance_id, GODOT_CALLBACK_FUNCTIONS[5], new Object[] { task.getResult(), true });
+                        } else {
+                            GpgsLog.e("ERROR while listing snapshots: ", task.getException());
+                            EventDispatcher.send(instance_id, GODOT_CALLBACK_FUNCTIONS[5], new Object[] { 0, false });
                         }
+                    }
+                });
+    }
+
+    /**
+     * Loads the metadata listing without telling Godot, e.g. to have it ready right after
+     * signing in.
+     *
+     * @return the number of saves
+     */
+    public Task<Integer> loadSnapshotList(boolean forceReload){
+        GamesBackend backend = this.backend;
+        if (backend == null) return Tasks.forException(new IllegalStateException("Not signed in"));
 
-                        return null;
+        return backend.listSnapshots(forceReload)
+                .continueWith(SNAPSHOT_EXECUTOR, new Continuation<List<SnapshotInfo>, Integer>() {
+                    @Override
+                    public Integer then(@NonNull Task<List<SnapshotInfo>> task) throws Exception {
+                        snapshotList.set(task.getResult());
+                        return snapshotList.size();
                     }
-                })
-                .addOnCompleteListener(new OnCompleteListener<String>() {
+                });
+    }
+
+    public Object[] getSnapshotListPage(int offset, int count){
+        return snapshotList.getPage(offset, count);
+    }
+
+    /**
+     * @return writes waiting for their quiet period or being committed
+     */
+    public synchronized int getPendingWriteCount(){
+        return pendingWrites.size() + writesInFlight.size();
+    }
+
+    private Task<byte[]> downloadSnapshot(GamesBackend backend, String snapshotName, final String cacheKey){
+        return backend.readSnapshot(snapshotName, conflictResolutionPolicy, null)
+                .continueWith(SNAPSHOT_EXECUTOR, new Continuation<SnapshotData, byte[]>() {
                     @Override
-                    public void onComplete(@NonNull Task<String> task) {
-                        GodotLib.calldeferred(instance_id, GODOT_CALLBACK_FUNCTIONS[1], new Object[] { task.getResult(), true });
+                    public byte[] then(@NonNull Task<SnapshotData> task) throws Exception {
+                        SnapshotData snapshot = task.getResult();
+                        Metrics.addBytes(Metrics.BYTES_SNAPSHOT_READ, snapshot.contents.length);
+                        snapshotCache.put(cacheKey, snapshot.info.lastModified, snapshot.info.progressValue, snapshot.contents);
+                        return snapshot.contents;
                     }
                 });
     }
 
+    private static SnapshotInfo find(List<SnapshotInfo> snapshots, String snapshotName){
+        for (SnapshotInfo info : snapshots) {
+            if (snapshotName.equals(info.name)) return info;
+        }
+        return null;
+    }
+
+    /**
+     * Snapshot names are only unique per account, so the cache key includes the account.
+     */
+    private static String getCacheKey(GamesBackend backend, String snapshotName){
+        String accountID = backend.getAccountID();
+        return (accountID != null ? accountID : "") + "/" + snapshotName;
+    }
+
+    private void sendLoadedSnapshot(byte[] data, boolean loadedWithoutError, boolean binary){
+        if (data == null) data = new byte[0];
+        if (binary)
+            EventDispatcher.send(instance_id, GODOT_CALLBACK_FUNCTIONS[4], new Object[] { data, loadedWithoutError });
+        else
+            EventDispatcher.send(instance_id, GODOT_CALLBACK_FUNCTIONS[1], new Object[] { new String(data, UTF_8), loadedWithoutError });
+    }
+
+    /**
+     * @param useContainer write new saves in the {@link SnapshotCodec} container with a checksum
+     * @param codec        SnapshotCodec.CODEC_NONE, CODEC_DEFLATE or CODEC_LZ
+     * @param level        deflate level (0-9, -1 for the default), ignored by the other codecs
+     * @return false if the codec or level is unknown; the current settings are kept then
+     */
+    public boolean setCompression(boolean useContainer, int codec, int level){
+        if (codec < SnapshotCodec.CODEC_NONE || codec > SnapshotCodec.CODEC_LZ) {
+            GpgsLog.w("Unknown snapshot codec: ", codec);
+            return false;
+        }
+        if (codec == SnapshotCodec.CODEC_DEFLATE
+                && (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+            GpgsLog.w("Unknown deflate level: ", level);
+            return false;
+        }
+        compression = new Compression(useContainer, codec, level);
+        return true;
+    }
+
+    /**
+     * @param value one of the SnapshotsClient.RESOLUTION_POLICY_ constants. With
+     *              RESOLUTION_POLICY_MANUAL conflicts are merged by the strategy set with
+     *              setConflictStrategy().
+     */
     public void setConflictResolutionPolicy(int value){
         conflictResolutionPolicy = value;
     }
+
+    /**
+     * @param strategy one of the SnapshotConflictResolver.STRATEGY_ constants
+     */
+    public void setConflictStrategy(int strategy){
+        conflictResolver.setStrategy(strategy);
+    }
+
+    /**
+     * @param timeoutMs how long GDScript gets to resolve a conflict, 0 to wait forever
+     */
+    public void setConflictTimeout(long timeoutMs){
+        conflictResolver.setGodotTimeout(timeoutMs);
+    }
+
+    public boolean resolveConflict(String conflictID, byte[] mergedData){
+        return conflictResolver.resolveFromGodot(conflictID, mergedData);
+    }
+
+    /**
+     * Gives up on the conflicts handed to GDScript; their saves fail.
+     */
+    public void cancelConflicts(){
+        conflictResolver.cancelWaiting();
+    }
 }
@@ -0,0 +1,304 @@
+package com.meinelaterne.godot_gpgs.util;
+
+import android.app.Activity;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps only the best pending score per leaderboard and submits it on an interval or at a session
+ * boundary. Scores that are not better than one already pending or submitted in this session are
+ * dropped without a call. Unsent scores are kept in a journal so they survive restarts.
+ *
+ * Play Games applies a submitted score to every collection (public, social, friends) of a
+ * leaderboard, so the leaderboard ID alone identifies a pending score.
+ *
+ * Pending and submitted scores belong to an account, in a journal of their own; which
+ * leaderboards count lower scores as better is kept across accounts. Scores from before the first
+ * sign-in belong to the first account that signs in.
+ */
+public class ScoreSubmitter {
+    private static final String JOURNAL_NAME = "scores.journal";
+
+    // Journal record types
+    private static final String OP_SCORE = "S";         // S <leaderboardID> <score>  best pending score
+    private static final String OP_ORDER = "L";         // L <leaderboardID>          lower scores are better
+
+    private static final String[] GODOT_CALLBACK_FUNCTIONS = new String[] {
+            "_on_play_game_services_scores_submitted", //(int submitted, int dropped)
+    };
+
+    private static final long DEFAULT_SUBMIT_INTERVAL_MS = 30000;
+
+    private volatile int instance_id;
+    private final Activity activity;
+    private final String journalName;
+    private Journal journal;
+    // null until the first account signs in
+    private String accountID = null;
+    // Tells completions of a batch sent for an earlier account apart
+    private int accountGeneration = 0;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private final Map<String, Long> pendingScores = new LinkedHashMap<>();
+    private final Map<String, Long> submittedScores = new HashMap<>();
+    private final Set<String> lowerIsBetter = new HashSet<>();
+
+    private GamesBackend backend = null;
+    private long submitIntervalMs = DEFAULT_SUBMIT_INTERVAL_MS;
+    private boolean submitting = false;
+    private boolean submitScheduled = false;
+    private int submittedCount = 0;
+    private int droppedCount = 0;
+
+    private final Runnable submitRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (ScoreSubmitter.this) {
+                submitScheduled = false;
+            }
+            flush();
+        }
+    };
+
+    public ScoreSubmitter(Activity activity, int instance_id) {
+        this(activity, instance_id, JOURNAL_NAME);
+    }
+
+    /**
+     * @param journalName file the pending scores are kept in, e.g. a separate one for load tests
+     */
+    public ScoreSubmitter(Activity activity, int instance_id, String journalName) {
+        this.instance_id = instance_id;
+        this.activity = activity;
+        this.journalName = journalName;
+        journal = Journal.open(activity, journalName);
+        replay(journal.readAll());
+    }
+
+    /**
+     * @param instance_id script that gets the submit reports from now on
+     */
+    public void setInstanceID(int instance_id) {
+        this.instance_id = instance_id;
+    }
+
+    /**
+     * @param backend the backend of the signed in account, or null once signed out
+     */
+    public synchronized void setBackend(GamesBackend backend) {
+        this.backend = backend;
+        if (backend == null) return;
+        if (!backend.getAccountID().equals(accountID)) switchAccount(backend.getAccountID());
+        scheduleSubmit(submitIntervalMs);
+    }
+
+    /**
+     * Stores the current account's scores and loads the ones of newAccountID.
+     */
+    private void switchAccount(String newAccountID) {
+        Map<String, Long> carriedScores = new LinkedHashMap<>();
+        if (accountID == null) {
+            carriedScores.putAll(pendingScores);
+            journal.delete();
+        } else {
+            compact();
+            journal.close();
+        }
+
+        GpgsLog.d("ScoreSubmitter: switching account");
+        handler.removeCallbacks(submitRunnable);
+        submitScheduled = false;
+        submitting = false;
+        accountGeneration++;
+        pendingScores.clear();
+        submittedScores.clear();
+
+        accountID = newAccountID;
+        journal = Journal.openForAccount(activity, journalName, newAccountID);
+        replay(journal.readAll());
+
+        for (Map.Entry<String, Long> entry : carriedScores.entrySet()) {
+            Long pending = pendingScores.get(entry.getKey());
+            if (pending == null || isBetter(entry.getKey(), entry.getValue(), pending))
+                pendingScores.put(entry.getKey(), entry.getValue());
+        }
+        compact();
+    }
+
+    /**
+     * @param intervalSeconds how often pending scores are sent. 0 only sends them at session
+     *                        boundaries (app pause or an explicit flush).
+     */
+    public synchronized void setSubmitInterval(int intervalSeconds) {
+        submitIntervalMs = Math.max(0, intervalSeconds) * 1000L;
+        handler.removeCallbacks(submitRunnable);
+        submitScheduled = false;
+        scheduleSubmit(submitIntervalMs);
+    }
+
+    public synchronized void setLowerIsBetter(String leaderboardID, boolean value) {
+        if (value == lowerIsBetter.contains(leaderboardID)) return;
+
+        if (value) {
+            lowerIsBetter.add(leaderboardID);
+            journal.append(OP_ORDER, leaderboardID);
+        } else {
+            lowerIsBetter.remove(leaderboardID);
+            compact();
+        }
+    }
+
+    public synchronized void submit(String leaderboardID, long score) {
+        Long pending = pendingScores.get(leaderboardID);
+        Long submitted = submittedScores.get(leaderboardID);
+
+        if ((pending != null && !isBetter(leaderboardID, score, pending))
+                || (submitted != null && !isBetter(leaderboardID, score, submitted))) {
+            droppedCount++;
+            // No batch is coming that would report the drop
+            if (pendingScores.isEmpty() && !submitting) report();
+            return;
+        }
+
+        // The pending score being replaced will never be sent
+        if (pending != null) droppedCount++;
+
+        pendingScores.put(leaderboardID, score);
+        journal.append(OP_SCORE, leaderboardID, Long.toString(score));
+        scheduleSubmit(submitIntervalMs);
+    }
+
+    public synchronized int getPendingCount() {
+        return pendingScores.size();
+    }
+
+    /**
+     * Drops everything that is pending and deletes the journal, for submitters that are thrown
+     * away after use such as the load test's.
+     */
+    public synchronized void discard() {
+        backend = null;
+        handler.removeCallbacks(submitRunnable);
+        submitScheduled = false;
+        pendingScores.clear();
+        submittedScores.clear();
+        journal.delete();
+    }
+
+    /**
+     * Sends every pending score right away. Does nothing while signed out.
+     */
+    public synchronized void flush() {
+        if (submitting || backend == null || pendingScores.isEmpty()) return;
+
+        submitting = true;
+        final int generation = accountGeneration;
+        List<Task<?>> batch = new ArrayList<>();
+
+        for (Map.Entry<String, Long> entry : pendingScores.entrySet()) {
+            final String leaderboardID = entry.getKey();
+            final long score = entry.getValue();
+            batch.add(backend.submitScore(leaderboardID, score)
+                    .addOnCompleteListener(new OnCompleteListener<Void>() {
+                        @Override
+                        public void onComplete(@NonNull Task<Void> task) {
+                            onScoreComplete(generation, leaderboardID, score, task.isSuccessful());
+                        }
+                    }));
+        }
+
+        GpgsLog.d("ScoreSubmitter.flush(): scores submitted: ", batch.size());
+        Tasks.whenAllComplete(batch).addOnCompleteListener(new OnCompleteListener<List<Task<?>>>() {
+            @Override
+            public void onComplete(@NonNull Task<List<Task<?>>> task) {
+                onBatchComplete(generation);
+            }
+        });
+    }
+
+    private synchronized void onScoreComplete(int generation, String leaderboardID, long score, boolean success) {
+        // Scores of an earlier account stay pending in its journal until it signs in again
+        if (!success || generation != accountGeneration) return;
+
+        submittedCount++;
+        Long submitted = submittedScores.get(leaderboardID);
+        if (submitted == null || isBetter(leaderboardID, score, submitted))
+            submittedScores.put(leaderboardID, score);
+
+        // A better score may have arrived while this one was in flight
+        Long pending = pendingScores.get(leaderboardID);
+        if (pending != null && pending == score) pendingScores.remove(leaderboardID);
+    }
+
+    private synchronized void onBatchComplete(int generation) {
+        if (generation != accountGeneration) return;
+        submitting = false;
+        compact();
+        report();
+
+        if (!pendingScores.isEmpty()) scheduleSubmit(submitIntervalMs);
+    }
+
+    private void report() {
+        if (GpgsLog.isEnabled(GpgsLog.DEBUG)) GpgsLog.d("ScoreSubmitter: " + submittedCount + " submitted, dropped: ", droppedCount);
+        EventDispatcher.send(instance_id, GODOT_CALLBACK_FUNCTIONS[0], new Object[] { submittedCount, droppedCount });
+        submittedCount = 0;
+        droppedCount = 0;
+    }
+
+    private boolean isBetter(String leaderboardID, long score, long than) {
+        return lowerIsBetter.contains(leaderboardID) ? score < than : score > than;
+    }
+
+    private void scheduleSubmit(long delayMs) {
+        if (backend == null || pendingScores.isEmpty() || submitScheduled || delayMs <= 0) return;
+        submitScheduled = true;
+        handler.postDelayed(submitRunnable, delayMs);
+    }
+
+    private void compact() {
+        List<String[]> records = new ArrayList<>();
+        for (String leaderboardID : lowerIsBetter) {
+            records.add(new String[] { OP_ORDER, leaderboardID });
+        }
+        for (Map.Entry<String, Long> entry : pendingScores.entrySet()) {
+            records.add(new String[] { OP_SCORE, entry.getKey(), entry.getValue().toString() });
+        }
+        journal.rewrite(records);
+    }
+
+    private void replay(List<String[]> records) {
+        for (String[] record : records) {
+            if (record.length < 2) continue;
+
+            try {
+                switch (record[0]) {
+                    case OP_ORDER:
+                        lowerIsBetter.add(record[1]);
+                        break;
+                    case OP_SCORE:
+                        // Scores are only journaled when they improve, so the last one wins
+                        pendingScores.put(record[1], Long.parseLong(record[2]));
+                        break;
+                }
+            } catch (RuntimeException e) {
+                GpgsLog.d("ScoreSubmitter: skipping malformed journal record");
+            }
+        }
+        GpgsLog.d("ScoreSubmitter: scores pending from journal: ", pendingScores.size());
+    }
+}
@@ -0,0 +1,200 @@
+package com.meinelaterne.godot_gpgs.util;
+
+import android.app.Activity;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Local copy of snapshot contents in the app data directory. Each entry remembers the last
+ * modified timestamp and progress value of the snapshot it was read from or written to, so a load
+ * can be served locally while the remote metadata still matches.
+ *
+ * There is one instance per process, since every instance would rewrite the same index. All
+ * methods do file I/O and are meant to be called from a background thread.
+ */
+public class SnapshotCache {
+    private static final String SNAPSHOT_FOLDER = "snapshots";
+    private static final String INDEX_NAME = "snapshots.index";
+
+    private static class Entry {
+        final String fileName;
+        final long lastModified;
+        final long progressValue;
+
+        Entry(String fileName, long lastModified, long progressValue) {
+            this.fileName = fileName;
+            this.lastModified = lastModified;
+            this.progressValue = progressValue;
+        }
+    }
+
+    private static SnapshotCache instance = null;
+
+    private final File dir;
+    private final Journal index;
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    private int hits = 0;
+    private int misses = 0;
+
+    public static synchronized SnapshotCache getInstance(Activity activity) {
+        if (instance == null) instance = new SnapshotCache(activity);
+        return instance;
+    }
+
+    private SnapshotCache(Activity activity) {
+        dir = new File(new File(activity.getApplicationInfo().dataDir, Journal.DATA_FOLDER), SNAPSHOT_FOLDER);
+        if (!dir.exists() && !dir.mkdirs()) {
+            GpgsLog.d("Failed to create directory: ", dir.getAbsolutePath());
+        }
+        index = Journal.open(activity, INDEX_NAME);
+
+        for (String[] record : index.readAll()) {
+            if (record.length < 4) continue;
+            try {
+                entries.put(record[0], new Entry(record[1], Long.parseLong(record[2]), Long.parseLong(record[3])));
+            } catch (NumberFormatException e) {
+                GpgsLog.d("SnapshotCache: skipping malformed index record");
+            }
+        }
+    }
+
+    /**
+     * @param key           identifies the snapshot, including the account it belongs to
+     * @param lastModified  last modified timestamp of the remote snapshot
+     * @param progressValue progress value of the remote snapshot
+     * @return the cached contents if they were stored for exactly this version, otherwise null
+     */
+    public synchronized byte[] get(String key, long lastModified, long progressValue) {
+        Entry entry = entries.get(key);
+        if (entry == null || entry.lastModified != lastModified || entry.progressValue != progressValue) {
+            misses++;
+            return null;
+        }
+
+        File file = new File(dir, entry.fileName);
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            byte[] data = new byte[(int) file.length()];
+            int read = 0;
+            while (read < data.length) {
+                int count = in.read(data, read, data.length - read);
+                if (count < 0) throw new IOException("Unexpected end of file");
+                read += count;
+            }
+            hits++;
+            return data;
+        } catch (IOException e) {
+            GpgsLog.e("ERROR while reading cached snapshot: ", e);
+            remove(key);
+            misses++;
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Stores the contents of a snapshot version, replacing any older copy.
+     */
+    public synchronized void put(String key, long lastModified, long progressValue, byte[] data) {
+        String fileName = toFileName(key);
+        File file = new File(dir, fileName);
+        File tmp = new File(dir, fileName + GodotCache.TEMP_SUFFIX);
+
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            out.write(data);
+            out.flush();
+            out.getFD().sync();
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) throw new IOException("Failed to move cached snapshot into place");
+
+            entries.put(key, new Entry(fileName, lastModified, progressValue));
+            persist();
+        } catch (IOException e) {
+            GpgsLog.e("ERROR while caching snapshot: ", e);
+            remove(key);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+            }
+            if (tmp.exists()) tmp.delete();
+        }
+    }
+
+    public synchronized void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            new File(dir, entry.fileName).delete();
+            persist();
+        }
+    }
+
+    /**
+     * Removes every snapshot stored under a key of the form accountID + "/" + name.
+     */
+    public synchronized void removeAccount(String accountID) {
+        String prefix = accountID + "/";
+        boolean removed = false;
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Entry> entry = iterator.next();
+            if (!entry.getKey().startsWith(prefix)) continue;
+            new File(dir, entry.getValue().fileName).delete();
+            iterator.remove();
+            removed = true;
+        }
+        if (removed) persist();
+    }
+
+    public synchronized int getHitCount() {
+        return hits;
+    }
+
+    public synchronized int getMissCount() {
+        return misses;
+    }
+
+    private void persist() {
+        List<String[]> records = new ArrayList<>();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            Entry value = entry.getValue();
+            records.add(new String[] {
+                    entry.getKey(),
+                    value.fileName,
+                    Long.toString(value.lastModified),
+                    Long.toString(value.progressValue) });
+        }
+        index.rewrite(records);
+    }
+
+    /**
+     * Snapshot names may contain characters that are not safe in file names, so only a readable
+     * prefix is kept and the hash of the full key makes the name unique.
+     */
+    private static String toFileName(String key) {
+        String safe = key.replaceAll("[^A-Za-z0-9_-]", "_");
+        if (safe.length() > 48) safe = safe.substring(0, 48);
+        return safe + "_" + Integer.toHexString(key.hashCode()) + ".bin";
+    }
+}
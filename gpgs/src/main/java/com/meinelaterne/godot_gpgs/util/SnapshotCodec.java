@@ -0,0 +1,311 @@
+package com.meinelaterne.godot_gpgs.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Optional container for snapshot data:
+ *
+ * <pre>
+ * offset size
+ * 0      4    magic "GPGS"
+ * 4      1    container version
+ * 5      1    codec ID (CODEC_NONE, CODEC_DEFLATE or CODEC_LZ)
+ * 6      4    uncompressed length, big endian
+ * 10     4    CRC32 of the uncompressed data, big endian
+ * 14     ...  payload
+ * </pre>
+ *
+ * Data that does not start with the header is treated as a plain save written before the
+ * container existed and is returned unchanged.
+ */
+public class SnapshotCodec {
+
+    public static final int CODEC_NONE = 0;
+    public static final int CODEC_DEFLATE = 1;
+    public static final int CODEC_LZ = 2;
+
+    private static final byte[] MAGIC = new byte[] { 'G', 'P', 'G', 'S' };
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 14;
+
+    // Most output a byte of payload can decode to: deflate's theoretical limit is about 1032:1,
+    // and an LZ length byte adds at most 255 bytes. A longer length in the header is damage.
+    private static final long DEFLATE_MAX_RATIO = 1032;
+    private static final long LZ_MAX_RATIO = 255;
+
+    private SnapshotCodec() {
+    }
+
+    /**
+     * @param codec one of the CODEC_ constants
+     * @param level deflate level (0-9, -1 for the default), ignored by the other codecs
+     * @return data wrapped in the container. Falls back to CODEC_NONE when compression does not
+     *         make the payload smaller.
+     */
+    public static byte[] encode(byte[] data, int codec, int level) {
+        byte[] payload;
+        switch (codec) {
+            case CODEC_DEFLATE:
+                payload = deflate(data, level);
+                break;
+            case CODEC_LZ:
+                payload = LZ.compress(data);
+                break;
+            default:
+                payload = data;
+                codec = CODEC_NONE;
+        }
+        if (codec != CODEC_NONE && payload.length >= data.length) {
+            payload = data;
+            codec = CODEC_NONE;
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+
+        byte[] out = new byte[HEADER_SIZE + payload.length];
+        System.arraycopy(MAGIC, 0, out, 0, MAGIC.length);
+        out[4] = (byte) VERSION;
+        out[5] = (byte) codec;
+        writeInt(out, 6, data.length);
+        writeInt(out, 10, (int) crc.getValue());
+        System.arraycopy(payload, 0, out, HEADER_SIZE, payload.length);
+        return out;
+    }
+
+    public static boolean isContainer(byte[] data) {
+        if (data == null || data.length < HEADER_SIZE) return false;
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (data[i] != MAGIC[i]) return false;
+        }
+        return data[4] == VERSION;
+    }
+
+    /**
+     * @return the original data of a container, or data itself if it is a plain save
+     * @throws IOException if the container is damaged or its checksum does not match
+     */
+    public static byte[] decode(byte[] data) throws IOException {
+        if (!isContainer(data)) return data;
+
+        int codec = data[5];
+        int length = readInt(data, 6);
+        int expectedCrc = readInt(data, 10);
+        int payloadLength = data.length - HEADER_SIZE;
+        if (length < 0) throw new IOException("Snapshot container has an invalid length");
+
+        byte[] out;
+        switch (codec) {
+            case CODEC_NONE:
+                if (length != payloadLength) throw new IOException("Snapshot container has an invalid length");
+                out = Arrays.copyOfRange(data, HEADER_SIZE, data.length);
+                break;
+            case CODEC_DEFLATE:
+                if (length > payloadLength * DEFLATE_MAX_RATIO) throw new IOException("Snapshot container has an invalid length");
+                out = inflate(data, HEADER_SIZE, length);
+                break;
+            case CODEC_LZ:
+                if (length > payloadLength * LZ_MAX_RATIO) throw new IOException("Snapshot container has an invalid length");
+                out = LZ.decompress(data, HEADER_SIZE, length);
+                break;
+            default:
+                throw new IOException("Snapshot container uses unknown codec " + codec);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(out, 0, out.length);
+        if (out.length != length || (int) crc.getValue() != expectedCrc)
+            throw new IOException("Snapshot checksum mismatch");
+        return out;
+    }
+
+    private static byte[] deflate(byte[] data, int level) {
+        // DEFAULT_COMPRESSION is -1 and must not be clamped to NO_COMPRESSION
+        if (level != Deflater.DEFAULT_COMPRESSION)
+            level = Math.max(Deflater.NO_COMPRESSION, Math.min(Deflater.BEST_COMPRESSION, level));
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] data, int offset, int length) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, offset, data.length - offset);
+            byte[] out = new byte[length];
+            int written = 0;
+            while (written < length && !inflater.finished()) {
+                int count = inflater.inflate(out, written, length - written);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    throw new IOException("Snapshot payload is truncated");
+                written += count;
+            }
+            if (written != length) throw new IOException("Snapshot payload is truncated");
+            return out;
+        } catch (DataFormatException e) {
+            throw new IOException("Snapshot payload is damaged", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static void writeInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    private static int readInt(byte[] buffer, int offset) {
+        return ((buffer[offset] & 0xFF) << 24)
+                | ((buffer[offset + 1] & 0xFF) << 16)
+                | ((buffer[offset + 2] & 0xFF) << 8)
+                | (buffer[offset + 3] & 0xFF);
+    }
+
+    /**
+     * A small LZ77 codec in the style of an LZ4 block: each sequence is a token (literal count in
+     * the high nibble, match length - 4 in the low nibble), extra length bytes, the literals, and
+     * a 2 byte little endian offset into the already decoded output. The last sequence only has
+     * literals. Trades ratio for speed compared to deflate.
+     */
+    static class LZ {
+        private static final int MIN_MATCH = 4;
+        private static final int MAX_OFFSET = 0xFFFF;
+        private static final int HASH_LOG = 12;
+
+        static byte[] compress(byte[] src) {
+            int n = src.length;
+            byte[] out = new byte[n + n / 255 + 16];
+            int op = 0;
+
+            int[] table = new int[1 << HASH_LOG];
+            Arrays.fill(table, -1);
+
+            int anchor = 0;
+            int i = 0;
+            while (i <= n - MIN_MATCH) {
+                int sequence = readIntLE(src, i);
+                int hash = (sequence * 0x9E3779B1) >>> (32 - HASH_LOG);
+                int ref = table[hash];
+                table[hash] = i;
+
+                if (ref < 0 || i - ref > MAX_OFFSET || readIntLE(src, ref) != sequence) {
+                    i++;
+                    continue;
+                }
+
+                int matchLength = MIN_MATCH;
+                while (i + matchLength < n && src[ref + matchLength] == src[i + matchLength]) {
+                    matchLength++;
+                }
+
+                op = writeSequence(out, op, src, anchor, i - anchor, i - ref, matchLength);
+                i += matchLength;
+                anchor = i;
+            }
+
+            op = writeSequence(out, op, src, anchor, n - anchor, 0, 0);
+            return Arrays.copyOf(out, op);
+        }
+
+        static byte[] decompress(byte[] src, int offset, int length) throws IOException {
+            byte[] out = new byte[length];
+            int ip = offset;
+            int op = 0;
+            try {
+                while (ip < src.length) {
+                    int token = src[ip++] & 0xFF;
+
+                    int literalLength = token >>> 4;
+                    if (literalLength == 15) {
+                        int b;
+                        do {
+                            b = src[ip++] & 0xFF;
+                            literalLength += b;
+                        } while (b == 255);
+                    }
+                    System.arraycopy(src, ip, out, op, literalLength);
+                    ip += literalLength;
+                    op += literalLength;
+
+                    if (ip >= src.length) break;
+
+                    int matchOffset = (src[ip] & 0xFF) | ((src[ip + 1] & 0xFF) << 8);
+                    ip += 2;
+                    int matchLength = token & 0x0F;
+                    if (matchLength == 15) {
+                        int b;
+                        do {
+                            b = src[ip++] & 0xFF;
+                            matchLength += b;
+                        } while (b == 255);
+                    }
+                    matchLength += MIN_MATCH;
+
+                    int ref = op - matchOffset;
+                    if (matchOffset == 0 || ref < 0) throw new IOException("Snapshot payload is damaged");
+                    // Byte by byte because the match may overlap the bytes it produces
+                    for (int k = 0; k < matchLength; k++) {
+                        out[op++] = out[ref + k];
+                    }
+                }
+            } catch (IndexOutOfBoundsException e) {
+                throw new IOException("Snapshot payload is damaged", e);
+            }
+            if (op != length) throw new IOException("Snapshot payload is truncated");
+            return out;
+        }
+
+        private static int writeSequence(byte[] out, int op, byte[] src, int literalStart, int literalLength, int matchOffset, int matchLength) {
+            int tokenPos = op++;
+            int token = Math.min(literalLength, 15) << 4;
+            if (literalLength >= 15) op = writeLength(out, op, literalLength - 15);
+            System.arraycopy(src, literalStart, out, op, literalLength);
+            op += literalLength;
+
+            if (matchLength > 0) {
+                out[op++] = (byte) matchOffset;
+                out[op++] = (byte) (matchOffset >>> 8);
+                int extra = matchLength - MIN_MATCH;
+                token |= Math.min(extra, 15);
+                if (extra >= 15) op = writeLength(out, op, extra - 15);
+            }
+            out[tokenPos] = (byte) token;
+            return op;
+        }
+
+        private static int writeLength(byte[] out, int op, int length) {
+            while (length >= 255) {
+                out[op++] = (byte) 255;
+                length -= 255;
+            }
+            out[op++] = (byte) length;
+            return op;
+        }
+
+        private static int readIntLE(byte[] buffer, int offset) {
+            return (buffer[offset] & 0xFF)
+                    | ((buffer[offset + 1] & 0xFF) << 8)
+                    | ((buffer[offset + 2] & 0xFF) << 16)
+                    | ((buffer[offset + 3] & 0xFF) << 24);
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package com.meinelaterne.godot_gpgs.util;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.games.SnapshotsClient;
+import com.google.android.gms.games.snapshot.Snapshot;
+import com.google.android.gms.games.snapshot.SnapshotContents;
+import com.google.android.gms.games.snapshot.SnapshotMetadata;
+import com.google.android.gms.games.snapshot.SnapshotMetadataChange;
+import com.google.android.gms.tasks.Continuation;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+
+/**
+ * Opens snapshots and, when the conflict resolution policy is RESOLUTION_POLICY_MANUAL, resolves
+ * conflicts with one resolveConflict() call: both versions are handed to a merge strategy in Java
+ * or to GDScript, and the merged bytes are written as the resolution.
+ */
+public class SnapshotConflictResolver {
+    public static final int STRATEGY_HIGHEST_PROGRESS = 0;
+    public static final int STRATEGY_LONGEST_PLAYTIME = 1;
+    public static final int STRATEGY_MOST_RECENT = 2;
+    public static final int STRATEGY_FIELD_UNION = 3;
+    public static final int STRATEGY_GODOT = 4;
+
+    private static final String[] GODOT_CALLBACK_FUNCTIONS = new String[] {
+            "_on_play_game_services_saved_game_conflict", //(String conflictID, String snapshotName, PoolByteArray serverData, Dictionary serverMetadata, PoolByteArray localData, Dictionary localMetadata)
+    };
+
+    // A resolution can itself run into a new conflict if another device saved in the meantime
+    private static final int MAX_RESOLVE_ATTEMPTS = 3;
+
+    // Below the default snapshot deadlines of the TaskGuard, so the fallback still gets written
+    private static final long DEFAULT_GODOT_TIMEOUT_MS = 10000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Converts between the bytes stored in a snapshot and the bytes the game works with.
+     */
+    public interface PayloadCodec {
+        byte[] decode(byte[] stored) throws IOException;
+        byte[] encode(byte[] data);
+    }
+
+    private volatile int instance_id;
+    private final Executor executor;
+    private final PayloadCodec codec;
+
+    // Conflicts handed to GDScript, waiting for resolveSnapshotConflict()
+    private final Map<String, TaskCompletionSource<byte[]>> waitingForGodot = new HashMap<>();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private volatile int strategy = STRATEGY_HIGHEST_PROGRESS;
+    private volatile long godotTimeoutMs = DEFAULT_GODOT_TIMEOUT_MS;
+
+    public SnapshotConflictResolver(int instance_id, Executor executor, PayloadCodec codec) {
+        this.instance_id = instance_id;
+        this.executor = executor;
+        this.codec = codec;
+    }
+
+    public void setInstanceID(int instance_id) {
+        this.instance_id = instance_id;
+    }
+
+    public void setStrategy(int strategy) {
+        this.strategy = strategy;
+    }
+
+    /**
+     * @param timeoutMs how long a conflict handed to GDScript waits for resolveFromGodot() before
+     *                  it is resolved with STRATEGY_HIGHEST_PROGRESS, 0 to wait forever
+     */
+    public void setGodotTimeout(long timeoutMs) {
+        godotTimeoutMs = Math.max(0, timeoutMs);
+    }
+
+    /**
+     * Fails every conflict still waiting for GDScript, e.g. because the account changed or the
+     * caller stopped waiting. Their resolveSnapshotConflict() calls then return false.
+     */
+    public void cancelWaiting() {
+        List<TaskCompletionSource<byte[]>> sources;
+        synchronized (waitingForGodot) {
+            sources = new ArrayList<>(waitingForGodot.values());
+            waitingForGodot.clear();
+        }
+        for (TaskCompletionSource<byte[]> source : sources) {
+            source.trySetException(new CancellationException("Snapshot conflict abandoned"));
+        }
+    }
+
+    /**
+     * Opens the snapshot and resolves any conflict reported for it.
+     */
+    public Task<Snapshot> open(SnapshotsClient snapshotsClient, String snapshotName, int conflictResolutionPolicy) {
+        return resolve(snapshotsClient, snapshotName, snapshotsClient.open(snapshotName, true, conflictResolutionPolicy), 0);
+    }
+
+    /**
+     * Completes a conflict that was handed to GDScript.
+     *
+     * @return false if no conflict with this ID is waiting
+     */
+    public boolean resolveFromGodot(String conflictID, byte[] mergedData) {
+        TaskCompletionSource<byte[]> source;
+        synchronized (waitingForGodot) {
+            source = waitingForGodot.remove(conflictID);
+        }
+        if (source == null) return false;
+        source.trySetResult(mergedData);
+        return true;
+    }
+
+    private Task<Snapshot> resolve(final SnapshotsClient snapshotsClient, final String snapshotName,
+                                   Task<SnapshotsClient.DataOrConflict<Snapshot>> opened, final int attempt) {
+        return opened.continueWithTask(executor, new Continuation<SnapshotsClient.DataOrConflict<Snapshot>, Task<Snapshot>>() {
+            @Override
+            public Task<Snapshot> then(@NonNull Task<SnapshotsClient.DataOrConflict<Snapshot>> task) throws Exception {
+                SnapshotsClient.DataOrConflict<Snapshot> result = task.getResult();
+                if (!result.isConflict()) return Tasks.forResult(result.getData());
+
+                if (attempt >= MAX_RESOLVE_ATTEMPTS)
+                    throw new IOException("Snapshot conflict could not be resolved: " + snapshotName);
+
+                final SnapshotsClient.SnapshotConflict conflict = result.getConflict();
+                if (GpgsLog.isEnabled(GpgsLog.DEBUG)) GpgsLog.d("Resolving snapshot conflict " + conflict.getConflictId() + " for ", snapshotName);
+
+                return merge(snapshotName, conflict).continueWithTask(executor, new Continuation<byte[], Task<Snapshot>>() {
+                    @Override
+                    public Task<Snapshot> then(@NonNull Task<byte[]> merged) throws Exception {
+                        SnapshotContents contents = conflict.getResolutionSnapshotContents();
+                        contents.writeBytes(merged.getResult());
+
+                        Task<SnapshotsClient.DataOrConflict<Snapshot>> resolved = snapshotsClient.resolveConflict(
+                                conflict.getConflictId(),
+                                conflict.getSnapshot().getMetadata().getSnapshotId(),
+                                mergeMetadata(conflict.getSnapshot().getMetadata(), conflict.getConflictingSnapshot().getMetadata()),
+                                contents);
+                        return resolve(snapshotsClient, snapshotName, resolved, attempt + 1);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * @return the bytes to store as the resolution, already in stored form
+     */
+    private Task<byte[]> merge(String snapshotName, SnapshotsClient.SnapshotConflict conflict) throws IOException {
+        Snapshot server = conflict.getSnapshot();
+        Snapshot local = conflict.getConflictingSnapshot();
+        SnapshotMetadata serverMetadata = server.getMetadata();
+        SnapshotMetadata localMetadata = local.getMetadata();
+
+        switch (strategy) {
+            case STRATEGY_LONGEST_PLAYTIME:
+                return Tasks.forResult(localMetadata.getPlayedTime() > serverMetadata.getPlayedTime()
+                        ? local.getSnapshotContents().readFully()
+                        : server.getSnapshotContents().readFully());
+            case STRATEGY_MOST_RECENT:
+                return Tasks.forResult(localMetadata.getLastModifiedTimestamp() > serverMetadata.getLastModifiedTimestamp()
+                        ? local.getSnapshotContents().readFully()
+                        : server.getSnapshotContents().readFully());
+            case STRATEGY_FIELD_UNION:
+                return Tasks.forResult(codec.encode(unionMerge(
+                        codec.decode(server.getSnapshotContents().readFully()),
+                        codec.decode(local.getSnapshotContents().readFully()),
+                        localMetadata.getLastModifiedTimestamp() > serverMetadata.getLastModifiedTimestamp())));
+            case STRATEGY_GODOT:
+                return askGodot(snapshotName, conflict);
+            default:
+                return Tasks.forResult(localMetadata.getProgressValue() > serverMetadata.getProgressValue()
+                        ? local.getSnapshotContents().readFully()
+                        : server.getSnapshotContents().readFully());
+        }
+    }
+
+    private Task<byte[]> askGodot(String snapshotName, SnapshotsClient.SnapshotConflict conflict) throws IOException {
+        final String conflictID = conflict.getConflictId();
+        final TaskCompletionSource<byte[]> source = new TaskCompletionSource<>();
+        synchronized (waitingForGodot) {
+            waitingForGodot.put(conflictID, source);
+        }
+
+        Snapshot server = conflict.getSnapshot();
+        Snapshot local = conflict.getConflictingSnapshot();
+        byte[] serverData = codec.decode(server.getSnapshotContents().readFully());
+        byte[] localData = codec.decode(local.getSnapshotContents().readFully());
+        final byte[] fallback = local.getMetadata().getProgressValue() > server.getMetadata().getProgressValue() ? localData : serverData;
+
+        final Runnable timeout = new Runnable() {
+            @Override
+            public void run() {
+                synchronized (waitingForGodot) {
+                    if (waitingForGodot.get(conflictID) != source) return;
+                    waitingForGodot.remove(conflictID);
+                }
+                GpgsLog.w("Snapshot conflict was not resolved in time, keeping the highest progress: ", conflictID);
+                source.trySetResult(fallback);
+            }
+        };
+        long timeoutMs = godotTimeoutMs;
+        if (timeoutMs > 0) handler.postDelayed(timeout, timeoutMs);
+
+        EventDispatcher.send(instance_id, GODOT_CALLBACK_FUNCTIONS[0], new Object[] {
+                conflictID,
+                snapshotName,
+                serverData,
+                SnapshotInfo.from(server.getMetadata()).toDictionary(),
+                localData,
+                SnapshotInfo.from(local.getMetadata()).toDictionary() });
+
+        return source.getTask().continueWith(executor, new Continuation<byte[], byte[]>() {
+            @Override
+            public byte[] then(@NonNull Task<byte[]> task) throws Exception {
+                handler.removeCallbacks(timeout);
+                return codec.encode(task.getResult());
+            }
+        });
+    }
+
+    /**
+     * Merges two JSON object saves key by key: keys present in only one version are kept,
+     * numbers take the larger value, objects are merged recursively and anything else comes
+     * from the newer version. Saves that are not JSON objects fall back to the newer version.
+     */
+    private static byte[] unionMerge(byte[] server, byte[] local, boolean localIsNewer) {
+        try {
+            JSONObject serverJson = new JSONObject(new String(server, UTF_8));
+            JSONObject localJson = new JSONObject(new String(local, UTF_8));
+            JSONObject merged = localIsNewer ? unionMerge(serverJson, localJson) : unionMerge(localJson, serverJson);
+            return merged.toString().getBytes(UTF_8);
+        } catch (JSONException e) {
+            GpgsLog.d("Saves are not JSON objects, keeping the newer one");
+            return localIsNewer ? local : server;
+        }
+    }
+
+    private static JSONObject unionMerge(JSONObject older, JSONObject newer) throws JSONException {
+        JSONObject merged = new JSONObject(older.toString());
+        Iterator<String> keys = newer.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            Object newValue = newer.get(key);
+            Object oldValue = older.opt(key);
+
+            if (newValue instanceof JSONObject && oldValue instanceof JSONObject) {
+                merged.put(key, unionMerge((JSONObject) oldValue, (JSONObject) newValue));
+            } else if (newValue instanceof Number && oldValue instanceof Number) {
+                merged.put(key, ((Number) newValue).doubleValue() >= ((Number) oldValue).doubleValue() ? newValue : oldValue);
+            } else {
+                merged.put(key, newValue);
+            }
+        }
+        return merged;
+    }
+
+    private static SnapshotMetadataChange mergeMetadata(SnapshotMetadata server, SnapshotMetadata local) {
+        SnapshotMetadata newer = local.getLastModifiedTimestamp() > server.getLastModifiedTimestamp() ? local : server;
+        return new SnapshotMetadataChange.Builder()
+                .setDescription(newer.getDescription())
+                .setPlayedTimeMillis(Math.max(server.getPlayedTime(), local.getPlayedTime()))
+                .setProgressValue(Math.max(server.getProgressValue(), local.getProgressValue()))
+                .build();
+    }
+}
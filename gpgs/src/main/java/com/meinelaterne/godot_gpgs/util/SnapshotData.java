@@ -0,0 +1,14 @@
+package com.meinelaterne.godot_gpgs.util;
+
+/**
+ * The stored bytes of a snapshot together with its metadata.
+ */
+public final class SnapshotData {
+    public final SnapshotInfo info;
+    public final byte[] contents;
+
+    public SnapshotData(SnapshotInfo info, byte[] contents) {
+        this.info = info;
+        this.contents = contents;
+    }
+}
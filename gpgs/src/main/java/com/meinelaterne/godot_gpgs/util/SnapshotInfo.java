@@ -0,0 +1,56 @@
+package com.meinelaterne.godot_gpgs.util;
+
+import android.net.Uri;
+
+import com.google.android.gms.games.snapshot.SnapshotMetadata;
+
+import org.godotengine.godot.Dictionary;
+
+/**
+ * The metadata of one snapshot as plain values, so it can outlive the Play Games buffer it was
+ * read from.
+ */
+public final class SnapshotInfo {
+    public final String name;
+    public final String description;
+    public final long lastModified;
+    public final long playedTime;
+    public final long progressValue;
+    public final String coverImageUri;
+    public final String deviceName;
+
+    public SnapshotInfo(String name, String description, long lastModified, long playedTime, long progressValue,
+                        String coverImageUri, String deviceName) {
+        this.name = name;
+        this.description = description != null ? description : "";
+        this.lastModified = lastModified;
+        this.playedTime = playedTime;
+        this.progressValue = progressValue;
+        this.coverImageUri = coverImageUri != null ? coverImageUri : "";
+        this.deviceName = deviceName != null ? deviceName : "";
+    }
+
+    public static SnapshotInfo from(SnapshotMetadata metadata) {
+        Uri coverImage = metadata.getCoverImageUri();
+        return new SnapshotInfo(
+                metadata.getUniqueName(),
+                metadata.getDescription(),
+                metadata.getLastModifiedTimestamp(),
+                metadata.getPlayedTime(),
+                metadata.getProgressValue(),
+                coverImage != null ? coverImage.toString() : null,
+                metadata.getDeviceName());
+    }
+
+    public Dictionary toDictionary() {
+        Dictionary dictionary = new Dictionary();
+        dictionary.put("name", name);
+        dictionary.put("description", description);
+        dictionary.put("last_modified", lastModified);
+        dictionary.put("played_time", playedTime);
+        dictionary.put("progress_value", progressValue);
+        dictionary.put("cover_image_uri", coverImageUri);
+        dictionary.put("device_name", deviceName);
+        return dictionary;
+    }
+}
@@ -0,0 +1,77 @@
+package com.meinelaterne.godot_gpgs.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * In-memory copy of the snapshot metadata listing, newest first. Holds {@link SnapshotInfo} values
+ * instead of Play Games metadata objects, so the buffer it was built from can be released right
+ * away and pages can be handed to Godot without another request.
+ */
+public class SnapshotList {
+
+    private static final Comparator<SnapshotInfo> NEWEST_FIRST = new Comparator<SnapshotInfo>() {
+        @Override
+        public int compare(SnapshotInfo a, SnapshotInfo b) {
+            return a.lastModified < b.lastModified ? 1 : (a.lastModified == b.lastModified ? 0 : -1);
+        }
+    };
+
+    // null until the listing has been loaded once
+    private List<SnapshotInfo> entries = null;
+
+    public synchronized boolean isLoaded() {
+        return entries != null;
+    }
+
+    public synchronized int size() {
+        return entries != null ? entries.size() : 0;
+    }
+
+    public synchronized void set(List<SnapshotInfo> snapshots) {
+        List<SnapshotInfo> loaded = new ArrayList<>(snapshots);
+        Collections.sort(loaded, NEWEST_FIRST);
+        entries = loaded;
+    }
+
+    /**
+     * Replaces or adds the entry of a snapshot that was just committed, so the listing stays
+     * current without reloading it.
+     */
+    public synchronized void update(SnapshotInfo updated) {
+        if (entries == null) return;
+
+        for (int i = 0; i < entries.size(); i++) {
+            if (entries.get(i).name.equals(updated.name)) {
+                entries.remove(i);
+                break;
+            }
+        }
+        entries.add(updated);
+        Collections.sort(entries, NEWEST_FIRST);
+    }
+
+    public synchronized void clear() {
+        entries = null;
+    }
+
+    /**
+     * @return up to count entries starting at offset, each as a Dictionary with name,
+     *         description, last_modified, played_time, progress_value, cover_image_uri and
+     *         device_name. A negative offset counts as 0.
+     */
+    public synchronized Object[] getPage(int offset, int count) {
+        offset = Math.max(0, offset);
+        if (entries == null || count <= 0 || offset >= entries.size()) return new Object[0];
+
+        // offset + count can overflow for a count such as Integer.MAX_VALUE
+        int end = (int) Math.min(entries.size(), (long) offset + count);
+        Object[] page = new Object[end - offset];
+        for (int i = offset; i < end; i++) {
+            page[i - offset] = entries.get(i).toDictionary();
+        }
+        return page;
+    }
+}
@@ -0,0 +1,405 @@
+package com.meinelaterne.godot_gpgs.util;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.common.api.ApiException;
+import com.google.android.gms.common.api.CommonStatusCodes;
+import com.google.android.gms.tasks.CancellationToken;
+import com.google.android.gms.tasks.CancellationTokenSource;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.OnTokenCanceledListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
+
+import org.godotengine.godot.Dictionary;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs Play Games tasks with a deadline, retries and a circuit breaker per operation.
+ *
+ * The deadline covers every attempt of a call: once it has passed the call fails with a
+ * TimeoutException, whatever the attempt in flight is doing. Failures with a transient status
+ * code (network, internal error, interrupted, timeout) are retried with exponential backoff and
+ * jitter as long as attempts and time are left; everything else fails right away. Operations
+ * that are not safe to repeat (achievement increments, snapshot writes) are never retried, since
+ * a failed attempt may still have reached Play Games. After several transient failures in a row
+ * the operation's circuit opens and calls fail without reaching Play Games until the open period
+ * is over, when a single call is let through to probe it again.
+ *
+ * Cancelling an operation fails all of its calls in flight with a CancellationException. Like a
+ * timeout, this only stops waiting; Play Games may still finish the work. Attempts get a
+ * CancellationToken that is cancelled once their call has failed, so work that can still be
+ * stopped, such as a snapshot that has not been committed yet, is dropped instead of finished.
+ */
+public class TaskGuard {
+
+    public static final int OP_SIGN_IN = 0;
+    public static final int OP_PLAYER = 1;
+    public static final int OP_ACHIEVEMENT = 2;
+    public static final int OP_SCORE = 3;
+    public static final int OP_SNAPSHOT_LIST = 4;
+    public static final int OP_SNAPSHOT_READ = 5;
+    public static final int OP_SNAPSHOT_WRITE = 6;
+    public static final int OP_IMAGE = 7;
+    public static final int OP_ACHIEVEMENT_INCREMENT = 8;
+    public static final int OP_ACHIEVEMENT_LOAD = 9;
+
+    private static final String[] OPERATION_NAMES = new String[] {
+            "sign_in", "player", "achievement", "score", "snapshot_list", "snapshot_read", "snapshot_write", "image",
+            "achievement_increment", "achievement_load",
+    };
+    private static final long[] DEFAULT_DEADLINES_MS = new long[] {
+            15000, 10000, 10000, 10000, 10000, 20000, 30000, 15000, 10000, 10000,
+    };
+    private static final int[] DEFAULT_MAX_ATTEMPTS = new int[] { 2, 3, 3, 3, 3, 3, 1, 2, 1, 3 };
+    // A repeated increment counts twice, and a repeated write can land after a newer one
+    private static final boolean[] RETRY_SAFE = new boolean[] { true, true, true, true, true, true, false, true, false, true };
+
+    private static final long BACKOFF_BASE_MS = 250;
+    private static final long BACKOFF_MAX_MS = 8000;
+
+    private static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    private static final long DEFAULT_OPEN_MS = 30000;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Random random = new Random();
+
+    private final long[] deadlinesMs = DEFAULT_DEADLINES_MS.clone();
+    private final int[] maxAttempts = DEFAULT_MAX_ATTEMPTS.clone();
+    private int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+    private long openMs = DEFAULT_OPEN_MS;
+
+    private final List<Set<TaskCompletionSource<?>>> inFlight = new ArrayList<>();
+    private final int[] consecutiveFailures = new int[OPERATION_NAMES.length];
+    // 0 while the circuit is closed
+    private final long[] openUntil = new long[OPERATION_NAMES.length];
+    private final boolean[] probing = new boolean[OPERATION_NAMES.length];
+
+    private final long[] retries = new long[OPERATION_NAMES.length];
+    private final long[] timeouts = new long[OPERATION_NAMES.length];
+    private final long[] cancellations = new long[OPERATION_NAMES.length];
+    private final long[] rejections = new long[OPERATION_NAMES.length];
+
+    /**
+     * Starts one attempt of a call.
+     */
+    public interface Call<T> {
+        /**
+         * @param cancellationToken cancelled once the call has failed, timed out or was cancelled
+         */
+        Task<T> start(CancellationToken cancellationToken) throws Exception;
+    }
+
+    public TaskGuard() {
+        for (int i = 0; i < OPERATION_NAMES.length; i++) {
+            inFlight.add(new HashSet<TaskCompletionSource<?>>());
+        }
+    }
+
+    /**
+     * @return the OP_ constant for a name such as "snapshot_read", or -1
+     */
+    public static int operationForName(String name) {
+        for (int i = 0; i < OPERATION_NAMES.length; i++) {
+            if (OPERATION_NAMES[i].equals(name)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @param deadlineMs  time for all attempts together, 0 for no deadline
+     * @param maxAttempts attempts including the first one, at least 1. Always 1 for operations
+     *                    that are not safe to repeat.
+     */
+    public synchronized void setPolicy(int operation, long deadlineMs, int maxAttempts) {
+        deadlinesMs[operation] = Math.max(0, deadlineMs);
+        this.maxAttempts[operation] = RETRY_SAFE[operation] ? Math.max(1, maxAttempts) : 1;
+    }
+
+    /**
+     * @param failureThreshold transient failures in a row that open the circuit, 0 to never open it
+     * @param openMs           how long an open circuit rejects calls before it lets one through
+     */
+    public synchronized void setCircuitBreaker(int failureThreshold, long openMs) {
+        this.failureThreshold = Math.max(0, failureThreshold);
+        this.openMs = Math.max(0, openMs);
+    }
+
+    /**
+     * @param call starts one attempt; called again for every retry
+     */
+    public <T> Task<T> run(int operation, final Callable<Task<T>> call) {
+        return run(operation, null, new Call<T>() {
+            @Override
+            public Task<T> start(CancellationToken cancellationToken) throws Exception {
+                return call.call();
+            }
+        });
+    }
+
+    /**
+     * @param cancellationToken lets the caller cancel this call alone, may be null
+     * @param call              starts one attempt; called again for every retry
+     */
+    public <T> Task<T> run(final int operation, CancellationToken cancellationToken, final Call<T> call) {
+        final TaskCompletionSource<T> source = new TaskCompletionSource<>();
+        final long deadlineMs;
+        synchronized (this) {
+            if (!allowCall(operation)) {
+                rejections[operation]++;
+                return Tasks.forException(new CircuitOpenException("Circuit open for " + OPERATION_NAMES[operation]));
+            }
+            inFlight.get(operation).add(source);
+            deadlineMs = deadlinesMs[operation];
+        }
+
+        final long deadlineAt = deadlineMs > 0 ? SystemClock.elapsedRealtime() + deadlineMs : Long.MAX_VALUE;
+        final Runnable timeout = new Runnable() {
+            @Override
+            public void run() {
+                if (fail(operation, source, new TimeoutException(OPERATION_NAMES[operation] + " timed out"), true)) {
+                    synchronized (TaskGuard.this) {
+                        timeouts[operation]++;
+                    }
+                }
+            }
+        };
+        if (deadlineMs > 0) handler.postDelayed(timeout, deadlineMs);
+
+        final CancellationTokenSource abandoned = new CancellationTokenSource();
+        source.getTask().addOnCompleteListener(new OnCompleteListener<T>() {
+            @Override
+            public void onComplete(@NonNull Task<T> task) {
+                handler.removeCallbacks(timeout);
+                // Whatever the attempt in flight still produces is not wanted any more
+                if (!task.isSuccessful()) abandoned.cancel();
+            }
+        });
+
+        if (cancellationToken != null) {
+            cancellationToken.onCanceledRequested(new OnTokenCanceledListener() {
+                @Override
+                public void onCanceled() {
+                    if (fail(operation, source, new CancellationException(OPERATION_NAMES[operation] + " cancelled"), false)) {
+                        synchronized (TaskGuard.this) {
+                            cancellations[operation]++;
+                        }
+                    }
+                }
+            });
+        }
+
+        attempt(operation, call, abandoned.getToken(), source, 1, deadlineAt);
+        return source.getTask();
+    }
+
+    /**
+     * Fails every call of the operation that is still in flight.
+     *
+     * @param operation an OP_ constant, or -1 for all operations
+     */
+    public void cancel(int operation) {
+        for (int op = 0; op < OPERATION_NAMES.length; op++) {
+            if (operation >= 0 && op != operation) continue;
+
+            List<TaskCompletionSource<?>> sources;
+            synchronized (this) {
+                sources = new ArrayList<>(inFlight.get(op));
+            }
+            for (TaskCompletionSource<?> source : sources) {
+                if (fail(op, source, new CancellationException(OPERATION_NAMES[op] + " cancelled"), false)) {
+                    synchronized (this) {
+                        cancellations[op]++;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return calls of all operations that have not completed yet, retries included
+     */
+    public synchronized int getInFlightCount() {
+        int count = 0;
+        for (Set<TaskCompletionSource<?>> calls : inFlight) {
+            count += calls.size();
+        }
+        return count;
+    }
+
+    /**
+     * @return per operation: deadline_ms, max_attempts, in_flight, retries, timeouts,
+     *         cancellations, rejections (calls refused by an open circuit) and circuit_open
+     */
+    public synchronized Dictionary getStats() {
+        Dictionary stats = new Dictionary();
+        long now = SystemClock.elapsedRealtime();
+        for (int op = 0; op < OPERATION_NAMES.length; op++) {
+            Dictionary operation = new Dictionary();
+            operation.put("deadline_ms", deadlinesMs[op]);
+            operation.put("max_attempts", maxAttempts[op]);
+            operation.put("in_flight", inFlight.get(op).size());
+            operation.put("retries", retries[op]);
+            operation.put("timeouts", timeouts[op]);
+            operation.put("cancellations", cancellations[op]);
+            operation.put("rejections", rejections[op]);
+            operation.put("circuit_open", openUntil[op] > now);
+            stats.put(OPERATION_NAMES[op], operation);
+        }
+        return stats;
+    }
+
+    private <T> void attempt(final int operation, final Call<T> call, final CancellationToken cancellationToken,
+                             final TaskCompletionSource<T> source, final int attempt, final long deadlineAt) {
+        if (source.getTask().isComplete()) return;
+
+        Task<T> task;
+        try {
+            task = call.start(cancellationToken);
+        } catch (Exception e) {
+            task = Tasks.forException(e);
+        }
+
+        task.addOnCompleteListener(new OnCompleteListener<T>() {
+            @Override
+            public void onComplete(@NonNull Task<T> task) {
+                if (source.getTask().isComplete()) return;
+
+                if (task.isSuccessful()) {
+                    if (source.trySetResult(task.getResult())) onSucceeded(operation, source);
+                    return;
+                }
+
+                Exception error = task.getException();
+                if (error == null) error = new CancellationException(OPERATION_NAMES[operation] + " cancelled");
+                boolean retryable = isRetryable(error);
+
+                long backoffMs = backoff(attempt);
+                int attempts;
+                synchronized (TaskGuard.this) {
+                    attempts = maxAttempts[operation];
+                }
+                if (retryable && RETRY_SAFE[operation] && attempt < attempts && SystemClock.elapsedRealtime() + backoffMs < deadlineAt) {
+                    if (GpgsLog.isEnabled(GpgsLog.DEBUG)) GpgsLog.d("TaskGuard: retrying " + OPERATION_NAMES[operation] + " in ms ", backoffMs);
+                    synchronized (TaskGuard.this) {
+                        retries[operation]++;
+                    }
+                    handler.postDelayed(new Runnable() {
+                        @Override
+                        public void run() {
+                            attempt(operation, call, cancellationToken, source, attempt + 1, deadlineAt);
+                        }
+                    }, backoffMs);
+                    return;
+                }
+                fail(operation, source, error, retryable);
+            }
+        });
+    }
+
+    /**
+     * Retryable failures count towards opening the circuit.
+     *
+     * @return true if this completed the call
+     */
+    private boolean fail(int operation, TaskCompletionSource<?> source, Exception error, boolean retryable) {
+        if (!source.trySetException(error)) return false;
+        synchronized (this) {
+            inFlight.get(operation).remove(source);
+            if (retryable) {
+                consecutiveFailures[operation]++;
+                if (probing[operation] || (failureThreshold > 0 && consecutiveFailures[operation] >= failureThreshold)) {
+                    if (openUntil[operation] == 0) GpgsLog.w("TaskGuard: circuit opened for ", OPERATION_NAMES[operation]);
+                    openUntil[operation] = SystemClock.elapsedRealtime() + openMs;
+                }
+                probing[operation] = false;
+            } else if (error instanceof CancellationException) {
+                // Says nothing about Play Games; the next call probes again
+                probing[operation] = false;
+            } else {
+                // Play Games answered, so it is reachable
+                closeCircuit(operation);
+            }
+        }
+        return true;
+    }
+
+    private synchronized void onSucceeded(int operation, TaskCompletionSource<?> source) {
+        inFlight.get(operation).remove(source);
+        closeCircuit(operation);
+    }
+
+    private void closeCircuit(int operation) {
+        if (openUntil[operation] != 0) GpgsLog.i("TaskGuard: circuit closed for ", OPERATION_NAMES[operation]);
+        consecutiveFailures[operation] = 0;
+        openUntil[operation] = 0;
+        probing[operation] = false;
+    }
+
+    private boolean allowCall(int operation) {
+        if (openUntil[operation] == 0) return true;
+        if (SystemClock.elapsedRealtime() < openUntil[operation] || probing[operation]) return false;
+        probing[operation] = true;
+        return true;
+    }
+
+    /**
+     * Exponential backoff with equal jitter: half of the delay is fixed, the other half random,
+     * so clients that failed together do not retry together.
+     */
+    private synchronized long backoff(int attempt) {
+        long delay = Math.min(BACKOFF_MAX_MS, BACKOFF_BASE_MS << Math.min(attempt - 1, 16));
+        return delay / 2 + (long) (random.nextDouble() * (delay / 2));
+    }
+
+    /**
+     * @return true if the call failed before it was handed to Play Games, so sending it again
+     *         cannot apply it twice. Timeouts, cancellations and network errors leave the outcome
+     *         open: Play Games may have applied the call anyway.
+     */
+    public static boolean failedBeforeSending(Exception error) {
+        if (error instanceof CircuitOpenException) return true;
+        if (!(error instanceof ApiException)) return false;
+        switch (((ApiException) error).getStatusCode()) {
+            case CommonStatusCodes.SIGN_IN_REQUIRED:
+            case CommonStatusCodes.API_NOT_CONNECTED:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isRetryable(Exception error) {
+        if (error instanceof TimeoutException) return true;
+        if (!(error instanceof ApiException)) return false;
+        switch (((ApiException) error).getStatusCode()) {
+            case CommonStatusCodes.NETWORK_ERROR:
+            case CommonStatusCodes.INTERNAL_ERROR:
+            case CommonStatusCodes.INTERRUPTED:
+            case CommonStatusCodes.TIMEOUT:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static class CircuitOpenException extends IOException {
+        CircuitOpenException(String message) {
+            super(message);
+        }
+    }
+}
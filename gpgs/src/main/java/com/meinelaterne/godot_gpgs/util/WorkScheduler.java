@@ -0,0 +1,211 @@
+package com.meinelaterne.godot_gpgs.util;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+
+import org.godotengine.godot.Dictionary;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Runs network heavy work in three priority classes, each with its own concurrency limit, so an
+ * interactive save never waits behind image prefetches. Work can require an unmetered or a
+ * non-roaming connection and is held until the {@link Network} state allows it. Background work
+ * additionally waits for the device to be online.
+ */
+public class WorkScheduler implements Network.Listener {
+    public static final int PRIORITY_INTERACTIVE = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_BACKGROUND = 2;
+
+    public static final int NETWORK_ANY = 0;
+    public static final int NETWORK_UNMETERED = 1;
+    public static final int NETWORK_NOT_ROAMING = 2;
+
+    private static final int[] DEFAULT_LIMITS = new int[] { 4, 4, 2 };
+
+    private static final WorkScheduler INSTANCE = new WorkScheduler();
+
+    private static class Job<T> {
+        final int priority;
+        final int constraint;
+        final Callable<Task<T>> work;
+        final TaskCompletionSource<T> result = new TaskCompletionSource<>();
+
+        Job(int priority, int constraint, Callable<Task<T>> work) {
+            this.priority = priority;
+            this.constraint = constraint;
+            this.work = work;
+        }
+    }
+
+    private final List<Deque<Job<?>>> queues = new ArrayList<>();
+    private final int[] limits = DEFAULT_LIMITS.clone();
+    private final int[] running = new int[DEFAULT_LIMITS.length];
+
+    private Network network = null;
+    private boolean pumping = false;
+
+    /**
+     * A scheduler of its own shares no slots with {@link #getInstance()}; the load test uses one
+     * so its saves neither compete with nor hold the slots of the game's work.
+     */
+    WorkScheduler() {
+        for (int i = 0; i < DEFAULT_LIMITS.length; i++) {
+            queues.add(new ArrayDeque<Job<?>>());
+        }
+    }
+
+    public static WorkScheduler getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Network constraints are checked against this network's state. Until one is attached, every
+     * constraint counts as met.
+     */
+    public void attach(Network network) {
+        synchronized (this) {
+            if (this.network != null) this.network.removeListener(this);
+            this.network = network;
+        }
+        if (network != null) network.addListener(this);
+        pump();
+    }
+
+    /**
+     * @param priority one of the PRIORITY_ constants
+     * @param limit    how many jobs of this class may run at the same time
+     */
+    public void setConcurrency(int priority, int limit) {
+        synchronized (this) {
+            if (priority < 0 || priority >= limits.length) return;
+            limits[priority] = Math.max(1, limit);
+        }
+        pump();
+    }
+
+    /**
+     * @param priority   one of the PRIORITY_ constants
+     * @param constraint one of the NETWORK_ constants
+     * @param work       started once a slot of the priority class is free and the constraint is
+     *                   met; the job counts as running until the returned task completes
+     * @return completes with the result of the task returned by work
+     */
+    public <T> Task<T> schedule(int priority, int constraint, Callable<Task<T>> work) {
+        Job<T> job = new Job<>(Math.max(PRIORITY_INTERACTIVE, Math.min(PRIORITY_BACKGROUND, priority)), constraint, work);
+        synchronized (this) {
+            queues.get(job.priority).addLast(job);
+        }
+        pump();
+        return job.result.getTask();
+    }
+
+    @Override
+    public void onNetworkChanged(Network.State previous, Network.State current) {
+        pump();
+    }
+
+    public synchronized Dictionary getStats() {
+        Dictionary stats = new Dictionary();
+        String[] names = new String[] { "interactive", "normal", "background" };
+        for (int i = 0; i < names.length; i++) {
+            stats.put(names[i] + "_queued", queues.get(i).size());
+            stats.put(names[i] + "_running", running[i]);
+            stats.put(names[i] + "_limit", limits[i]);
+        }
+        return stats;
+    }
+
+    /**
+     * Starts every job that may run now, highest priority first. Jobs are started outside the
+     * lock because their work may call back into the scheduler or into locked callers.
+     */
+    private void pump() {
+        synchronized (this) {
+            // The pumping thread looks for ready jobs again before it stops
+            if (pumping) return;
+            pumping = true;
+        }
+        while (true) {
+            List<Job<?>> ready;
+            synchronized (this) {
+                ready = takeReadyJobs();
+                if (ready.isEmpty()) {
+                    pumping = false;
+                    return;
+                }
+            }
+            for (Job<?> job : ready) {
+                start(job);
+            }
+        }
+    }
+
+    private synchronized List<Job<?>> takeReadyJobs() {
+        List<Job<?>> ready = new ArrayList<>();
+        Network.State state = network != null ? network.getState() : null;
+
+        for (int priority = 0; priority < queues.size(); priority++) {
+            Iterator<Job<?>> iterator = queues.get(priority).iterator();
+            while (running[priority] < limits[priority] && iterator.hasNext()) {
+                Job<?> job = iterator.next();
+                if (!isAllowed(job, state)) continue;
+                iterator.remove();
+                running[priority]++;
+                ready.add(job);
+            }
+        }
+        return ready;
+    }
+
+    private static boolean isAllowed(Job<?> job, Network.State state) {
+        if (state == null) return true;
+        if (job.priority == PRIORITY_BACKGROUND && !state.online) return false;
+        switch (job.constraint) {
+            case NETWORK_UNMETERED:
+                return state.online && !state.metered;
+            case NETWORK_NOT_ROAMING:
+                return state.online && !state.roaming;
+            default:
+                return true;
+        }
+    }
+
+    private <T> void start(final Job<T> job) {
+        Task<T> task;
+        try {
+            task = job.work.call();
+        } catch (Exception e) {
+            GpgsLog.e("ERROR while starting scheduled work: ", e);
+            finish(job);
+            job.result.trySetException(e);
+            return;
+        }
+
+        task.addOnCompleteListener(new OnCompleteListener<T>() {
+            @Override
+            public void onComplete(@NonNull Task<T> task) {
+                finish(job);
+                if (task.isSuccessful()) job.result.trySetResult(task.getResult());
+                else if (task.getException() != null) job.result.trySetException(task.getException());
+                else job.result.trySetException(new IllegalStateException("Scheduled work was canceled"));
+            }
+        });
+    }
+
+    private void finish(Job<?> job) {
+        synchronized (this) {
+            running[job.priority]--;
+        }
+        pump();
+    }
+}